@@ -0,0 +1,61 @@
+package io.purchaise.mongolay.benchmarks;
+
+import io.purchaise.mongolay.AccessControl;
+import io.purchaise.mongolay.AccessLevelType;
+import org.bson.conversions.Bson;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Builds the read and write access filters of a user holding a number of roles.
+ * The uncached variants rebuild and render the filter on every query, run with -prof gc to compare the allocations
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AccessControlBenchmark {
+	@Param({"1", "10", "100"})
+	public int roles;
+
+	private List<String> userRoles;
+
+	@Setup
+	public void setup() {
+		userRoles = Models.many(roles, i -> String.format("role-%d", i));
+	}
+
+	@Benchmark
+	public Object readFilter() {
+		return new AccessControl(userRoles, AccessLevelType.READ).applyAccessFilter();
+	}
+
+	@Benchmark
+	public Object renderReadFilter() {
+		// the filters are lazy, the driver renders them when sending the query
+		return new AccessControl(userRoles, AccessLevelType.READ).applyAccessFilter()
+			.stream()
+			.map(Bson::toBsonDocument)
+			.collect(Collectors.toList());
+	}
+
+	@Benchmark
+	public Object uncachedRenderReadFilter() {
+		return AccessControl.buildAccessFilter(userRoles, AccessLevelType.READ).toBsonDocument();
+	}
+
+	@Benchmark
+	public Object uncachedRenderNormalizedReadFilter() {
+		return AccessControl.buildAclFilter(userRoles, AccessLevelType.READ).toBsonDocument();
+	}
+
+	@Benchmark
+	public Object writeFilter() {
+		return new AccessControl(userRoles, AccessLevelType.WRITE).applyAccessFilter();
+	}
+}
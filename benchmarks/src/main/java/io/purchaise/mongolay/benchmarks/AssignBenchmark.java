@@ -0,0 +1,49 @@
+package io.purchaise.mongolay.benchmarks;
+
+import io.purchaise.mongolay.MongoRelay;
+import io.purchaise.mongolay.references.IReference;
+import io.purchaise.mongolay.references.ReferenceRegistry;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resolves one reference of N sources against M referenced documents, covering the fetch and the assign loop
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AssignBenchmark {
+	@Param({"10", "100", "1000"})
+	public int sources;
+
+	@Param({"10", "100", "1000"})
+	public int targets;
+
+	private MongoRelay relay;
+	private IReference reference;
+	private List<Models.Order> orders;
+
+	@Setup
+	public void setup() {
+		List<Models.Supplier> suppliers = Models.many(targets, i -> new Models.Supplier());
+		InMemoryDatabase database = new InMemoryDatabase().insert("suppliers", suppliers);
+		// the relay one level deep, as the reference is mapped by
+		relay = new MongoRelay(database.database()).withDepth(1);
+		reference = ReferenceRegistry.discover(Models.Order.class).get(0);
+		orders = Models.many(sources, i -> {
+			Models.Order order = new Models.Order();
+			order.supplierId = suppliers.get(i % suppliers.size())._id;
+			return order;
+		});
+	}
+
+	@Benchmark
+	public Object assign() {
+		return reference.map(orders, relay);
+	}
+}
@@ -0,0 +1,69 @@
+package io.purchaise.mongolay.benchmarks;
+
+import io.purchaise.mongolay.FieldReference;
+import io.purchaise.mongolay.utils.FieldAccessor;
+import org.apache.commons.lang3.reflect.FieldUtils;
+import org.bson.types.ObjectId;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares reading and writing a referenced field through the cached {@link FieldAccessor}
+ * against resolving and accessing it with {@link FieldUtils} on every object.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FieldAccessBenchmark {
+	public static class Item {
+		private ObjectId supplierId = new ObjectId();
+		private Object supplier;
+	}
+
+	private Item item;
+	private Object supplier;
+	private FieldReference reference;
+	private FieldAccessor accessor;
+
+	@Setup
+	public void setup() {
+		item = new Item();
+		supplier = new Object();
+		reference = new FieldReference("supplierId", "_id");
+		accessor = FieldAccessor.of(Item.class, "supplierId");
+	}
+
+	@Benchmark
+	public Object readFieldUtils() throws IllegalAccessException {
+		return FieldUtils.readField(FieldUtils.getField(Item.class, "supplierId", true), item, true);
+	}
+
+	@Benchmark
+	public Object readAccessor() {
+		return FieldAccessor.of(Item.class, "supplierId").get(item);
+	}
+
+	@Benchmark
+	public Object readCompiledAccessor() {
+		return accessor.get(item);
+	}
+
+	@Benchmark
+	public Object readFieldReference() {
+		return reference.getValue(item);
+	}
+
+	@Benchmark
+	public void writeFieldUtils() throws IllegalAccessException {
+		FieldUtils.writeField(item, "supplier", supplier, true);
+	}
+
+	@Benchmark
+	public void writeAccessor() {
+		FieldAccessor.of(Item.class, "supplier").set(item, supplier);
+	}
+}
@@ -0,0 +1,69 @@
+package io.purchaise.mongolay.benchmarks;
+
+import io.purchaise.mongolay.filters.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Plans the filtering of orders by their own fields and by the fields of their supplier and customer
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FilterConfiguratorBenchmark {
+	private FilterConfigurator configurator;
+
+	@Setup
+	public void setup() {
+		Map<String, Class<?>> classMap = new HashMap<>();
+		classMap.put("orders", Models.FullOrder.class);
+		classMap.put("suppliers", Models.Supplier.class);
+		classMap.put("customers", Models.Customer.class);
+
+		List<CollectionRelation> relations = new ArrayList<>();
+		relations.add(new CollectionRelation(Models.FullOrder.class, Models.Supplier.class, "supplierId", "_id", "supplier", true));
+		relations.add(new CollectionRelation(Models.FullOrder.class, Models.Customer.class, "customerId", "_id", "customer", true));
+
+		configurator = new FilterConfigurator();
+		configurator.setTarget(Models.FullOrder.class);
+		configurator.setRelations(relations);
+		configurator.setClassMap(classMap);
+		configurator.withFilterGroup(this.group(OperationType.AND,
+			this.filter("orders", "quantity", ConditionType.GT, 5, OperationType.AND),
+			this.filter("orders", "price", ConditionType.LTE, 100, OperationType.AND),
+			this.filter("suppliers", "name", ConditionType.EQ, "supplier", OperationType.AND)
+		));
+		configurator.withFilterGroup(this.group(OperationType.OR,
+			this.filter("customers", "name", ConditionType.EQ, "customer", OperationType.OR),
+			this.filter("orders", "cost", ConditionType.GT, 1, OperationType.AND)
+		));
+	}
+
+	private FiltersGroup group(OperationType operator, GeneralFilter<?>... filters) {
+		FiltersGroup group = new FiltersGroup();
+		group.setOperator(operator);
+		group.setFilters(new ArrayList<>(Arrays.asList(filters)));
+		return group;
+	}
+
+	private <T> GeneralFilter<T> filter(String collection, String column, ConditionType condition, T criteria, OperationType operator) {
+		GeneralFilter<T> filter = new GeneralFilter<>();
+		filter.setCollection(collection);
+		filter.setColumn(column);
+		filter.setCondition(condition);
+		filter.setCriteria(criteria);
+		filter.setOperator(operator);
+		filter.setType(criteria instanceof String ? CriteriaType.STRING : CriteriaType.INT);
+		return filter;
+	}
+
+	@Benchmark
+	public Object execute() {
+		return configurator.execute();
+	}
+}
@@ -0,0 +1,276 @@
+package io.purchaise.mongolay.benchmarks;
+
+import com.mongodb.MongoClientSettings;
+import com.mongodb.MongoNamespace;
+import com.mongodb.ServerAddress;
+import com.mongodb.ServerCursor;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.bulk.BulkWriteUpsert;
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.InsertOneModel;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.result.DeleteResult;
+import com.mongodb.client.result.InsertOneResult;
+import com.mongodb.client.result.UpdateResult;
+import org.bson.BsonDocument;
+import org.bson.BsonNull;
+import org.bson.codecs.configuration.CodecRegistries;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.codecs.pojo.PojoCodecProvider;
+import org.bson.conversions.Bson;
+
+import java.lang.reflect.Proxy;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * In memory stand-in of a {@link MongoDatabase}, such that the relay can be benchmarked offline.
+ * Only the calls the relay does when mapping references are supported: getting collections, finding
+ * documents with a filter, bulk writes of inserts and replacements, inserting, replacing or deleting a document,
+ * and deleting the documents matching a filter.
+ * Filters are evaluated by {@link InMemoryFilter}, projections and sorting are ignored.
+ */
+public class InMemoryDatabase {
+	private static final String NAME = "memory";
+	private static final CodecRegistry CODECS = CodecRegistries.fromRegistries(
+		MongoClientSettings.getDefaultCodecRegistry(),
+		CodecRegistries.fromProviders(PojoCodecProvider.builder().automatic(true).build())
+	);
+
+	private final Map<String, List<Object>> collections = new HashMap<>();
+
+	public InMemoryDatabase insert(String collection, Collection<?> documents) {
+		collections.computeIfAbsent(collection, key -> new ArrayList<>()).addAll(documents);
+		return this;
+	}
+
+	public MongoDatabase database() {
+		return (MongoDatabase) Proxy.newProxyInstance(MongoDatabase.class.getClassLoader(), new Class<?>[]{MongoDatabase.class}, (proxy, method, args) -> {
+			switch (method.getName()) {
+				case "getName":
+					return NAME;
+				case "getCodecRegistry":
+					return CODECS;
+				case "getCollection":
+					Class<?> clazz = args.length > 1 ? (Class<?>) args[1] : org.bson.Document.class;
+					return this.collection((String) args[0], clazz);
+				case "hashCode":
+					return System.identityHashCode(proxy);
+				case "equals":
+					return proxy == args[0];
+				case "toString":
+					return NAME;
+				default:
+					throw new UnsupportedOperationException(method.getName());
+			}
+		});
+	}
+
+	private MongoCollection<?> collection(String name, Class<?> clazz) {
+		List<Object> documents = collections.computeIfAbsent(name, key -> new ArrayList<>());
+		return (MongoCollection<?>) Proxy.newProxyInstance(MongoCollection.class.getClassLoader(), new Class<?>[]{MongoCollection.class}, (proxy, method, args) -> {
+			switch (method.getName()) {
+				case "getNamespace":
+					return new MongoNamespace(NAME, name);
+				case "getDocumentClass":
+					return clazz;
+				case "getCodecRegistry":
+					return CODECS;
+				case "bulkWrite":
+					return InMemoryDatabase.bulkWrite(documents, (List<?>) args[0]);
+				case "insertOne":
+					documents.add(args[0]);
+					return InsertOneResult.acknowledged(null);
+				case "replaceOne":
+					return InMemoryDatabase.replaceOne(documents, (Bson) args[0], args[1]);
+				case "deleteOne":
+					return InMemoryDatabase.deleteOne(documents, (Bson) args[0]);
+				case "deleteMany":
+					return InMemoryDatabase.deleteMany(documents, (Bson) args[0]);
+				case "find":
+					Bson filter = args != null && args.length > 0 && args[0] instanceof Bson ? (Bson) args[0] : null;
+					return new Find(documents).iterable(filter);
+				case "hashCode":
+					return System.identityHashCode(proxy);
+				case "equals":
+					return proxy == args[0];
+				case "toString":
+					return name;
+				default:
+					throw new UnsupportedOperationException(method.getName());
+			}
+		});
+	}
+
+	@SuppressWarnings("unchecked")
+	private static BulkWriteResult bulkWrite(List<Object> documents, List<?> writes) {
+		int inserted = 0;
+		int matched = 0;
+		List<BulkWriteUpsert> upserts = new ArrayList<>();
+		for (int i = 0; i < writes.size(); i++) {
+			Object write = writes.get(i);
+			if (write instanceof InsertOneModel) {
+				documents.add(((InsertOneModel<Object>) write).getDocument());
+				inserted++;
+				continue;
+			}
+			if (!(write instanceof ReplaceOneModel)) {
+				throw new UnsupportedOperationException(write.getClass().getSimpleName());
+			}
+			ReplaceOneModel<Object> replace = (ReplaceOneModel<Object>) write;
+			InMemoryFilter matcher = new InMemoryFilter(replace.getFilter().toBsonDocument(BsonDocument.class, MongoClientSettings.getDefaultCodecRegistry()));
+			int index = IntStream.range(0, documents.size()).filter(next -> matcher.matches(documents.get(next))).findFirst().orElse(-1);
+			if (index >= 0) {
+				documents.set(index, replace.getReplacement());
+				matched++;
+			} else if (replace.getReplaceOptions().isUpsert()) {
+				documents.add(replace.getReplacement());
+				upserts.add(new BulkWriteUpsert(i, new BsonNull()));
+			}
+		}
+		return BulkWriteResult.acknowledged(inserted, matched, 0, matched, upserts, Collections.emptyList());
+	}
+
+	private static UpdateResult replaceOne(List<Object> documents, Bson filter, Object replacement) {
+		int index = InMemoryDatabase.indexOf(documents, filter);
+		if (index < 0) {
+			return UpdateResult.acknowledged(0, 0L, null);
+		}
+		documents.set(index, replacement);
+		return UpdateResult.acknowledged(1, 1L, null);
+	}
+
+	private static DeleteResult deleteOne(List<Object> documents, Bson filter) {
+		int index = InMemoryDatabase.indexOf(documents, filter);
+		if (index < 0) {
+			return DeleteResult.acknowledged(0);
+		}
+		documents.remove(index);
+		return DeleteResult.acknowledged(1);
+	}
+
+	private static DeleteResult deleteMany(List<Object> documents, Bson filter) {
+		InMemoryFilter matcher = new InMemoryFilter(filter.toBsonDocument(BsonDocument.class, CODECS));
+		int size = documents.size();
+		documents.removeIf(matcher::matches);
+		return DeleteResult.acknowledged(size - documents.size());
+	}
+
+	private static int indexOf(List<Object> documents, Bson filter) {
+		InMemoryFilter matcher = new InMemoryFilter(filter.toBsonDocument(BsonDocument.class, CODECS));
+		return IntStream.range(0, documents.size()).filter(next -> matcher.matches(documents.get(next))).findFirst().orElse(-1);
+	}
+
+	/**
+	 * The state of a find, mutated by the fluent calls the same way the driver iterable is
+	 */
+	private static class Find {
+		private final List<Object> documents;
+		private Bson filter;
+		private int limit;
+
+		private Find(List<Object> documents) {
+			this.documents = documents;
+		}
+
+		private List<Object> results() {
+			if (filter == null) {
+				return limit > 0 ? documents.subList(0, Math.min(limit, documents.size())) : documents;
+			}
+			InMemoryFilter matcher = new InMemoryFilter(filter.toBsonDocument(BsonDocument.class, MongoClientSettings.getDefaultCodecRegistry()));
+			return documents.stream()
+				.filter(matcher::matches)
+				.limit(limit > 0 ? limit : Long.MAX_VALUE)
+				.collect(Collectors.toList());
+		}
+
+		@SuppressWarnings("unchecked")
+		private FindIterable<Object> iterable(Bson initial) {
+			this.filter = initial;
+			return (FindIterable<Object>) Proxy.newProxyInstance(FindIterable.class.getClassLoader(), new Class<?>[]{FindIterable.class}, (proxy, method, args) -> {
+				switch (method.getName()) {
+					case "filter":
+						this.filter = (Bson) args[0];
+						return proxy;
+					case "limit":
+						this.limit = (int) args[0];
+						return proxy;
+					case "into":
+						((Collection<Object>) args[0]).addAll(this.results());
+						return args[0];
+					case "iterator":
+					case "cursor":
+						return new Cursor(this.results());
+					case "first":
+						List<Object> results = this.results();
+						return results.isEmpty() ? null : results.get(0);
+					case "forEach":
+						this.results().forEach((Consumer<Object>) args[0]);
+						return null;
+					case "hashCode":
+						return System.identityHashCode(proxy);
+					case "equals":
+						return proxy == args[0];
+					case "toString":
+						return String.valueOf(filter);
+					default:
+						// projection, sort, batchSize and the other options are ignored
+						if (method.getReturnType().isAssignableFrom(FindIterable.class)) {
+							return proxy;
+						}
+						throw new UnsupportedOperationException(method.getName());
+				}
+			});
+		}
+	}
+
+	private static class Cursor implements MongoCursor<Object> {
+		private final Iterator<Object> iterator;
+		private int remaining;
+
+		private Cursor(List<Object> results) {
+			this.iterator = results.iterator();
+			this.remaining = results.size();
+		}
+
+		@Override
+		public void close() {
+		}
+
+		@Override
+		public boolean hasNext() {
+			return iterator.hasNext();
+		}
+
+		@Override
+		public Object next() {
+			remaining--;
+			return iterator.next();
+		}
+
+		@Override
+		public int available() {
+			return remaining;
+		}
+
+		@Override
+		public Object tryNext() {
+			return this.hasNext() ? this.next() : null;
+		}
+
+		@Override
+		public ServerCursor getServerCursor() {
+			return null;
+		}
+
+		@Override
+		public ServerAddress getServerAddress() {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,203 @@
+package io.purchaise.mongolay.benchmarks;
+
+import io.purchaise.mongolay.utils.FieldAccessor;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.Document;
+
+import java.util.*;
+import java.util.function.IntPredicate;
+import java.util.stream.Collectors;
+
+/**
+ * Evaluates the subset of query operators the relay emits for references and access control on plain objects:
+ * equality, $eq, $ne, $gt, $gte, $lt, $lte, $in, $nin, $exists, $size, $and, $or and $nor, on dotted paths and array indexes
+ */
+public class InMemoryFilter {
+	private static final Object MISSING = new Object();
+	private final BsonDocument filter;
+	// the $in values are hashed once per query
+	private final Map<BsonValue, Set<Object>> sets = new IdentityHashMap<>();
+
+	public InMemoryFilter(BsonDocument filter) {
+		this.filter = filter;
+	}
+
+	public boolean matches(Object document) {
+		return this.matches(document, filter);
+	}
+
+	private boolean matches(Object document, BsonDocument query) {
+		for (Map.Entry<String, BsonValue> entry : query.entrySet()) {
+			String key = entry.getKey();
+			BsonValue value = entry.getValue();
+			switch (key) {
+				case "$and":
+					if (!value.asArray().stream().allMatch(next -> this.matches(document, next.asDocument()))) {
+						return false;
+					}
+					break;
+				case "$or":
+					if (value.asArray().stream().noneMatch(next -> this.matches(document, next.asDocument()))) {
+						return false;
+					}
+					break;
+				case "$nor":
+					if (value.asArray().stream().anyMatch(next -> this.matches(document, next.asDocument()))) {
+						return false;
+					}
+					break;
+				default:
+					if (!this.matchesField(document, key, value)) {
+						return false;
+					}
+			}
+		}
+		return true;
+	}
+
+	private boolean matchesField(Object document, String field, BsonValue condition) {
+		boolean exists = this.exists(document, field);
+		Object actual = exists ? this.read(document, field) : null;
+		boolean operators = condition.isDocument() && condition.asDocument().keySet().stream().allMatch(next -> next.startsWith("$"));
+		if (!operators) {
+			return this.equalsAny(actual, InMemoryFilter.toJava(condition));
+		}
+		for (Map.Entry<String, BsonValue> entry : condition.asDocument().entrySet()) {
+			BsonValue value = entry.getValue();
+			boolean matches;
+			switch (entry.getKey()) {
+				case "$eq":
+					matches = this.equalsAny(actual, InMemoryFilter.toJava(value));
+					break;
+				case "$ne":
+					matches = !this.equalsAny(actual, InMemoryFilter.toJava(value));
+					break;
+				case "$gt":
+					matches = InMemoryFilter.compare(actual, value, order -> order > 0);
+					break;
+				case "$gte":
+					matches = InMemoryFilter.compare(actual, value, order -> order >= 0);
+					break;
+				case "$lt":
+					matches = InMemoryFilter.compare(actual, value, order -> order < 0);
+					break;
+				case "$lte":
+					matches = InMemoryFilter.compare(actual, value, order -> order <= 0);
+					break;
+				case "$in":
+					matches = this.in(actual, value);
+					break;
+				case "$nin":
+					matches = !this.in(actual, value);
+					break;
+				case "$exists":
+					matches = exists == value.asBoolean().getValue();
+					break;
+				case "$size":
+					matches = actual instanceof Collection && ((Collection<?>) actual).size() == value.asNumber().intValue();
+					break;
+				default:
+					throw new UnsupportedOperationException(entry.getKey());
+			}
+			if (!matches) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean in(Object actual, BsonValue values) {
+		Set<Object> set = sets.computeIfAbsent(values, key -> key.asArray().stream().map(InMemoryFilter::toJava).collect(Collectors.toSet()));
+		if (actual instanceof Collection) {
+			return ((Collection<?>) actual).stream().anyMatch(set::contains);
+		}
+		return set.contains(actual);
+	}
+
+	private boolean equalsAny(Object actual, Object expected) {
+		if (Objects.equals(actual, expected)) {
+			return true;
+		}
+		// arrays match when any of their elements does
+		return actual instanceof Collection && ((Collection<?>) actual).contains(expected);
+	}
+
+	private boolean exists(Object document, String field) {
+		return this.resolve(document, field) != MISSING;
+	}
+
+	private Object read(Object document, String field) {
+		return this.resolve(document, field);
+	}
+
+	/**
+	 * Follows a dotted path through documents, objects and array indexes
+	 * @return the value at the path, or {@link #MISSING}
+	 */
+	private Object resolve(Object document, String path) {
+		Object current = document;
+		for (String field : path.split("\\.")) {
+			if (current instanceof Document) {
+				Document next = (Document) current;
+				if (!next.containsKey(field)) {
+					return MISSING;
+				}
+				current = next.get(field);
+			} else if (current instanceof List && field.chars().allMatch(Character::isDigit)) {
+				List<?> next = (List<?>) current;
+				int index = Integer.parseInt(field);
+				if (index >= next.size()) {
+					return MISSING;
+				}
+				current = next.get(index);
+			} else if (current != null && FieldAccessor.of(current.getClass(), field) != null) {
+				current = FieldAccessor.of(current.getClass(), field).get(current);
+				if (current == null) {
+					// the pojo codec does not store null fields
+					return MISSING;
+				}
+			} else {
+				return MISSING;
+			}
+		}
+		return current;
+	}
+
+	/**
+	 * Compares numbers by value and strings lexicographically, values of other or different types never match
+	 */
+	private static boolean compare(Object actual, BsonValue value, IntPredicate test) {
+		Object expected = InMemoryFilter.toJava(value);
+		if (actual instanceof Number && expected instanceof Number) {
+			return test.test(Double.compare(((Number) actual).doubleValue(), ((Number) expected).doubleValue()));
+		}
+		if (actual instanceof String && expected instanceof String) {
+			return test.test(((String) actual).compareTo((String) expected));
+		}
+		return false;
+	}
+
+	private static Object toJava(BsonValue value) {
+		switch (value.getBsonType()) {
+			case NULL:
+				return null;
+			case OBJECT_ID:
+				return value.asObjectId().getValue();
+			case STRING:
+				return value.asString().getValue();
+			case INT32:
+				return value.asInt32().getValue();
+			case INT64:
+				return value.asInt64().getValue();
+			case DOUBLE:
+				return value.asDouble().getValue();
+			case BOOLEAN:
+				return value.asBoolean().getValue();
+			case ARRAY:
+				return value.asArray().stream().map(InMemoryFilter::toJava).collect(Collectors.toList());
+			default:
+				throw new UnsupportedOperationException(value.getBsonType().name());
+		}
+	}
+}
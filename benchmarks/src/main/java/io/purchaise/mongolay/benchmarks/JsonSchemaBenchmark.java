@@ -0,0 +1,34 @@
+package io.purchaise.mongolay.benchmarks;
+
+import io.purchaise.mongolay.validations.json.JsonSchemaBuilder;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Builds the json validation schema of the order entities
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonSchemaBenchmark {
+	private JsonSchemaBuilder builder;
+
+	@Setup
+	public void setup() {
+		builder = new JsonSchemaBuilder();
+	}
+
+	@Benchmark
+	public Object buildOrder() {
+		return builder.build(Models.Order.class);
+	}
+
+	@Benchmark
+	public Object buildFullOrder() {
+		return builder.build(Models.FullOrder.class);
+	}
+}
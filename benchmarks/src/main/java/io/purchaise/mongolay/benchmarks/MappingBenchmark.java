@@ -0,0 +1,75 @@
+package io.purchaise.mongolay.benchmarks;
+
+import io.purchaise.mongolay.MongoRelay;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Maps a page of orders with no, one and four references against the in memory database
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MappingBenchmark {
+	@Param({"10", "100", "1000"})
+	public int size;
+
+	private MongoRelay relay;
+	private List<Models.PlainOrder> plainOrders;
+	private List<Models.Order> orders;
+	private List<Models.FullOrder> fullOrders;
+
+	@Setup
+	public void setup() {
+		List<Models.Supplier> suppliers = Models.many(100, i -> new Models.Supplier());
+		List<Models.Customer> customers = Models.many(100, i -> new Models.Customer());
+		List<Models.Warehouse> warehouses = Models.many(10, i -> new Models.Warehouse());
+		List<Models.Carrier> carriers = Models.many(10, i -> new Models.Carrier());
+
+		InMemoryDatabase database = new InMemoryDatabase()
+			.insert("suppliers", suppliers)
+			.insert("customers", customers)
+			.insert("warehouses", warehouses)
+			.insert("carriers", carriers);
+		relay = new MongoRelay(database.database());
+
+		plainOrders = Models.many(size, i -> {
+			Models.PlainOrder order = new Models.PlainOrder();
+			order.supplierId = suppliers.get(i % suppliers.size())._id;
+			return order;
+		});
+		orders = Models.many(size, i -> {
+			Models.Order order = new Models.Order();
+			order.supplierId = suppliers.get(i % suppliers.size())._id;
+			return order;
+		});
+		fullOrders = Models.many(size, i -> {
+			Models.FullOrder order = new Models.FullOrder();
+			order.supplierId = suppliers.get(i % suppliers.size())._id;
+			order.customerId = customers.get(i % customers.size())._id;
+			order.warehouseId = warehouses.get(i % warehouses.size())._id;
+			order.carrierId = carriers.get(i % carriers.size())._id;
+			return order;
+		});
+	}
+
+	@Benchmark
+	public Object mapNoReferences() {
+		return relay.map(plainOrders, Models.PlainOrder.class);
+	}
+
+	@Benchmark
+	public Object mapOneReference() {
+		return relay.map(orders, Models.Order.class);
+	}
+
+	@Benchmark
+	public Object mapFourReferences() {
+		return relay.map(fullOrders, Models.FullOrder.class);
+	}
+}
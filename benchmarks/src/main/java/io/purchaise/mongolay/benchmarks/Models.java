@@ -0,0 +1,78 @@
+package io.purchaise.mongolay.benchmarks;
+
+import io.purchaise.mongolay.annotations.Entity;
+import io.purchaise.mongolay.annotations.Reference;
+import org.bson.types.ObjectId;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * The entities the benchmarks map, orders referencing zero, one or four other collections
+ */
+public class Models {
+	@Entity(collection = "suppliers")
+	public static class Supplier {
+		public ObjectId _id = new ObjectId();
+		public String name = "supplier";
+	}
+
+	@Entity(collection = "customers")
+	public static class Customer {
+		public ObjectId _id = new ObjectId();
+		public String name = "customer";
+	}
+
+	@Entity(collection = "warehouses")
+	public static class Warehouse {
+		public ObjectId _id = new ObjectId();
+		public String name = "warehouse";
+	}
+
+	@Entity(collection = "carriers")
+	public static class Carrier {
+		public ObjectId _id = new ObjectId();
+		public String name = "carrier";
+	}
+
+	@Entity(collection = "orders")
+	public static class PlainOrder {
+		public ObjectId _id = new ObjectId();
+		public ObjectId supplierId;
+		public int quantity = 1;
+		public double price = 10;
+		public double cost = 7;
+	}
+
+	@Entity(collection = "orders")
+	public static class Order extends PlainOrder {
+		@Reference(from = "supplierId")
+		public Supplier supplier;
+	}
+
+	@Entity(collection = "orders")
+	public static class FullOrder extends Order {
+		public ObjectId customerId;
+		public ObjectId warehouseId;
+		public ObjectId carrierId;
+
+		@Reference(from = "customerId")
+		public Customer customer;
+		@Reference(from = "warehouseId")
+		public Warehouse warehouse;
+		@Reference(from = "carrierId")
+		public Carrier carrier;
+	}
+
+	/**
+	 * Creates the given number of items
+	 */
+	public static <T> List<T> many(int size, Function<Integer, T> factory) {
+		List<T> items = new ArrayList<>(size);
+		for (int i = 0; i < size; i++) {
+			items.add(factory.apply(i));
+		}
+		return items;
+	}
+}
@@ -0,0 +1,77 @@
+package io.purchaise.mongolay.benchmarks;
+
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import io.purchaise.mongolay.MongoRelay;
+import io.purchaise.mongolay.RelayDatabase;
+import io.purchaise.mongolay.options.FieldConfig;
+import io.purchaise.mongolay.options.IOption;
+import io.purchaise.mongolay.options.OptionsUtils;
+import io.purchaise.mongolay.options.enums.OptionType;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Merges the calculated field options of the orders into an aggregation with a lookup
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OptionsBenchmark {
+	private RelayDatabase<Models.Order> database;
+	private List<Bson> pipeline;
+	private List<Bson> projectedPipeline;
+
+	@Setup
+	public void setup() {
+		Document config = new Document()
+			.append("revenue", new Document("$multiply", Arrays.asList("$price", "$quantity")))
+			.append("expense", new Document("$multiply", Arrays.asList("$cost", "$quantity")))
+			.append("profit", new Document("$subtract", Arrays.asList("$revenue", "$expense")))
+			.append("margin", new Document("$divide", Arrays.asList("$profit", "$revenue")))
+			.append("large", new Document("$gt", Arrays.asList("$quantity", 100)));
+		Document helper = new Document("unitProfit", new Document("$subtract", Arrays.asList("$price", "$cost")));
+
+		Map<OptionType, IOption> orderOptions = new HashMap<>();
+		orderOptions.put(OptionType.CALCULATED, new FieldConfig(config, helper));
+		Map<Class<?>, Map<OptionType, IOption>> options = new HashMap<>();
+		options.put(Models.Order.class, orderOptions);
+
+		MongoRelay relay = new MongoRelay(new InMemoryDatabase().database(), options);
+		database = relay.on(Models.Order.class);
+		pipeline = Arrays.asList(
+			Aggregates.match(Filters.gt("quantity", 5)),
+			Aggregates.lookup("suppliers", "supplierId", "_id", "supplier"),
+			Aggregates.limit(50)
+		);
+		projectedPipeline = Arrays.asList(
+			Aggregates.match(Filters.gt("quantity", 5)),
+			Aggregates.project(Projections.include("quantity", "calculated.revenue")),
+			Aggregates.limit(50)
+		);
+	}
+
+	@Benchmark
+	public Object mergeCalculationOptions() {
+		return OptionsUtils.mergeCalculationOptions(database, pipeline);
+	}
+
+	/**
+	 * Only the revenue is projected, hence only computed
+	 */
+	@Benchmark
+	public Object mergeProjectedCalculationOptions() {
+		return OptionsUtils.mergeCalculationOptions(database, projectedPipeline);
+	}
+}
@@ -0,0 +1,83 @@
+package io.purchaise.mongolay.benchmarks;
+
+import io.purchaise.mongolay.AccessLevelType;
+import io.purchaise.mongolay.RelayModel;
+import io.purchaise.mongolay.utils.RoleSet;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks the read access of a user holding a number of roles against list backed access lists, as read from documents.
+ * The user shares no role with the lists, the worst case of the check
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RoleCheckBenchmark {
+	@Param({"1", "10", "100"})
+	public int roles;
+
+	@Param({"10", "100"})
+	public int acl;
+
+	private List<String> userRoles;
+	private RoleSet roleSet;
+	private List<String> readACL;
+	private List<String> writeACL;
+
+	@Setup
+	public void setup() {
+		userRoles = Models.many(roles, i -> String.format("user-role-%d", i));
+		roleSet = RoleSet.of(userRoles);
+		readACL = Models.many(acl, i -> String.format("read-role-%d", i));
+		writeACL = Models.many(acl, i -> String.format("write-role-%d", i));
+	}
+
+	@Benchmark
+	public boolean nestedLoop() {
+		return RoleCheckBenchmark.isReadable(userRoles, readACL, writeACL);
+	}
+
+	@Benchmark
+	public boolean facade() {
+		return RelayModel.isAccessible(AccessLevelType.READ, userRoles, readACL, writeACL);
+	}
+
+	@Benchmark
+	public boolean roleSet() {
+		return RelayModel.isAccessible(AccessLevelType.READ, roleSet, readACL, writeACL);
+	}
+
+	/**
+	 * The check before the role sets, a contains per user role and access list
+	 */
+	private static boolean isReadable(List<String> roles, Collection<String> readACL, Collection<String> writeACL) {
+		if (isWritable(roles, readACL, writeACL) || readACL.contains("*")) {
+			return true;
+		}
+		for (String role : roles) {
+			if (readACL.contains(role)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean isWritable(List<String> roles, Collection<String> readACL, Collection<String> writeACL) {
+		if ((writeACL.isEmpty() && readACL.isEmpty()) || writeACL.contains("*")) {
+			return true;
+		}
+		for (String role : roles) {
+			if (writeACL.contains(role)) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
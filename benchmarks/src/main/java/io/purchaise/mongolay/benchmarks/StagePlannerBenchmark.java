@@ -0,0 +1,44 @@
+package io.purchaise.mongolay.benchmarks;
+
+import io.purchaise.mongolay.options.OptionsStagesBuilder;
+import org.bson.Document;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Plans the stages of many calculated fields, each depending on up to two earlier ones.
+ * The depth is the number of fields chained before starting over, hence the number of stages
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StagePlannerBenchmark {
+	@Param({"300"})
+	public int fields;
+
+	@Param({"3", "30"})
+	public int depth;
+
+	private Document computations;
+
+	@Setup
+	public void setup() {
+		computations = new Document();
+		for (int i = 0; i < fields; i++) {
+			int level = i % depth;
+			Object left = level == 0 ? "$price" : "$field" + (i - 1);
+			Object right = level < 2 ? "$quantity" : "$field" + (i - 2);
+			computations.append("field" + i, new Document("$add", Arrays.asList(left, right, new Document("$literal", "$ignored"))));
+		}
+	}
+
+	@Benchmark
+	public Object processOptions() {
+		return new OptionsStagesBuilder().processOptions(new Document(computations), Models.Order.class);
+	}
+}
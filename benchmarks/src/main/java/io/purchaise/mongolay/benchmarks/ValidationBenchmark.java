@@ -0,0 +1,62 @@
+package io.purchaise.mongolay.benchmarks;
+
+import io.purchaise.mongolay.utils.HibernateValidator;
+import org.openjdk.jmh.annotations.*;
+
+import javax.validation.Validation;
+import javax.validation.ValidatorFactory;
+import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Positive;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Validates orders with the shared validator, against building a validator factory per validation as done before
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ValidationBenchmark {
+	public static class ValidatedOrder extends Models.PlainOrder {
+		@NotNull
+		public String reference = "order";
+		@Positive
+		public int lines = 1;
+	}
+
+	private ValidatedOrder order;
+	private List<ValidatedOrder> orders;
+
+	@Setup
+	public void setup() {
+		order = new ValidatedOrder();
+		orders = Models.many(1000, i -> new ValidatedOrder());
+		HibernateValidator.getValidator().getConstraintsForClass(ValidatedOrder.class);
+	}
+
+	@Benchmark
+	public Object factoryPerValidation() {
+		try (ValidatorFactory factory = Validation.buildDefaultValidatorFactory()) {
+			return factory.getValidator().validate(order);
+		}
+	}
+
+	@Benchmark
+	public Object sharedValidator() {
+		return HibernateValidator.apply(order);
+	}
+
+	@Benchmark
+	public Object validateThousand() {
+		return orders.stream().map(HibernateValidator::apply).collect(Collectors.toList());
+	}
+
+	@Benchmark
+	public Object validateThousandInParallel() {
+		return HibernateValidator.applyAll(orders);
+	}
+}
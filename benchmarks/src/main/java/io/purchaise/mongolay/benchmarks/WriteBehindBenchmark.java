@@ -0,0 +1,56 @@
+package io.purchaise.mongolay.benchmarks;
+
+import io.purchaise.mongolay.MongoRelay;
+import io.purchaise.mongolay.RelayWriteBehind;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Buffers tracker writes spread over a number of documents, the cost paid on the request thread.
+ * The fewer the documents, the more writes are coalesced before each flush
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WriteBehindBenchmark {
+	@Param({"10", "1000"})
+	public int documents;
+
+	private List<ObjectId> ids;
+	private RelayWriteBehind<Document> writeBehind;
+	private int next;
+
+	@Setup
+	@SuppressWarnings("deprecation")
+	public void setup() {
+		ids = Models.many(documents, i -> new ObjectId());
+		MongoRelay relay = new MongoRelay(new InMemoryDatabase().database());
+		writeBehind = relay.on("tracker").getCollection().writeBehind(10000, 1000, 100, TimeUnit.MILLISECONDS, (items, exception) -> {
+			throw new IllegalStateException(exception);
+		});
+	}
+
+	@TearDown
+	public void tearDown() {
+		writeBehind.close();
+		System.out.printf("%nbuffered %d, coalesced %d, written %d in %d flushes, max delay %d ms%n",
+			writeBehind.getBuffered(),
+			writeBehind.getCoalesced(),
+			writeBehind.getWritten(),
+			writeBehind.getFlushes(),
+			TimeUnit.NANOSECONDS.toMillis(writeBehind.getMaxDelayNanos()));
+	}
+
+	@Benchmark
+	public void write() throws Exception {
+		ObjectId id = ids.get(next++ % ids.size());
+		writeBehind.write(new Document("_id", id).append("event", "visit").append("count", next));
+	}
+}
@@ -0,0 +1,75 @@
+package io.purchaise.mongolay.benchmarks;
+
+import io.purchaise.mongolay.utils.BoundedCache;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the size and age bounds of the cache and its counters
+ */
+public class BoundedCacheTest {
+	@Test
+	public void evictsLeastRecentlyUsed() {
+		BoundedCache<String, Integer> cache = new BoundedCache<>(2);
+		cache.put("a", 1);
+		cache.put("b", 2);
+		assertEquals(Integer.valueOf(1), cache.get("a"));
+		cache.put("c", 3);
+
+		assertEquals(2, cache.size());
+		assertNull(cache.get("b"));
+		assertEquals(Integer.valueOf(1), cache.get("a"));
+		assertEquals(Integer.valueOf(3), cache.get("c"));
+		assertEquals(1, cache.getEvictions());
+	}
+
+	@Test
+	public void expiresEntriesAfterTtl() throws InterruptedException {
+		BoundedCache<String, Integer> cache = new BoundedCache<>(10, 20, TimeUnit.MILLISECONDS);
+		cache.put("a", 1);
+		assertEquals(Integer.valueOf(1), cache.get("a"));
+		Thread.sleep(50);
+
+		assertNull(cache.get("a"));
+		assertEquals(0, cache.size());
+		assertEquals(1, cache.getEvictions());
+	}
+
+	@Test
+	public void countsHitsAndMisses() {
+		BoundedCache<String, Integer> cache = new BoundedCache<>(10);
+		assertEquals(0, cache.getHitRatio(), 0);
+		cache.get("a");
+		cache.put("a", 1);
+		cache.get("a");
+		cache.get("a");
+
+		assertEquals(2, cache.getHits());
+		assertEquals(1, cache.getMisses());
+		assertEquals(2.0 / 3, cache.getHitRatio(), 1e-9);
+	}
+
+	@Test
+	public void computesMissingValuesOnce() {
+		BoundedCache<String, Integer> cache = new BoundedCache<>(10);
+		assertEquals(Integer.valueOf(1), cache.computeIfAbsent("a", key -> 1));
+		assertEquals(Integer.valueOf(1), cache.computeIfAbsent("a", key -> 2));
+		assertEquals(1, cache.getHits());
+		assertEquals(1, cache.getMisses());
+	}
+
+	@Test
+	public void removesMatchingKeys() {
+		BoundedCache<String, Integer> cache = new BoundedCache<>(10);
+		cache.put("a1", 1);
+		cache.put("a2", 2);
+		cache.put("b1", 3);
+		cache.removeIf(key -> key.startsWith("a"));
+
+		assertEquals(1, cache.size());
+		assertEquals(Integer.valueOf(3), cache.get("b1"));
+	}
+}
@@ -0,0 +1,87 @@
+package io.purchaise.mongolay.benchmarks;
+
+import io.purchaise.mongolay.utils.BsonDiff;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that the computed update only touches the changed fields, and turns the stored document into the new one
+ */
+public class BsonDiffTest {
+	@Test
+	public void isEmptyForEqualDocuments() {
+		BsonDocument document = BsonDocument.parse("{name: 'a', address: {city: 'x'}, tags: ['a', 'b']}");
+		assertTrue(BsonDiff.diff(document, document.clone()).isEmpty());
+	}
+
+	@Test
+	public void setsNestedFields() {
+		BsonDocument before = BsonDocument.parse("{name: 'a', address: {city: 'x', geo: {lat: 1, lng: 2}}}");
+		BsonDocument after = BsonDocument.parse("{name: 'a', address: {city: 'x', geo: {lat: 1, lng: 3}, zip: '100'}}");
+
+		BsonDocument update = this.assertApplies(before, after);
+		assertEquals(BsonDocument.parse("{$set: {'address.geo.lng': 3, 'address.zip': '100'}}"), update);
+	}
+
+	@Test
+	public void unsetsRemovedFields() {
+		BsonDocument before = BsonDocument.parse("{name: 'a', note: 'n', address: {city: 'x', zip: '100'}}");
+		BsonDocument after = BsonDocument.parse("{name: 'a', address: {city: 'x'}}");
+
+		BsonDocument update = this.assertApplies(before, after);
+		assertEquals(BsonDocument.parse("{$unset: {'address.zip': '', note: ''}}"), update);
+	}
+
+	@Test
+	public void setsArraysAsAWhole() {
+		BsonDocument before = BsonDocument.parse("{tags: ['a', 'b'], lines: [{sku: 'x', quantity: 1}]}");
+		BsonDocument after = BsonDocument.parse("{tags: ['a'], lines: [{sku: 'x', quantity: 2}]}");
+
+		BsonDocument update = this.assertApplies(before, after);
+		assertEquals(BsonDocument.parse("{$set: {tags: ['a'], lines: [{sku: 'x', quantity: 2}]}}"), update);
+	}
+
+	@Test
+	public void replacesValuesChangingType() {
+		BsonDocument before = BsonDocument.parse("{address: 'x', contact: {email: 'e'}, count: 1}");
+		BsonDocument after = BsonDocument.parse("{address: {city: 'x'}, contact: null, count: 1.0}");
+
+		BsonDocument update = this.assertApplies(before, after);
+		assertEquals(BsonDocument.parse("{$set: {address: {city: 'x'}, contact: null, count: 1.0}}"), update);
+	}
+
+	/**
+	 * Applies the update computed between both documents to the first one, asserting it yields the second one
+	 * @return the update
+	 */
+	private BsonDocument assertApplies(BsonDocument before, BsonDocument after) {
+		BsonDocument update = BsonDiff.diff(before, after);
+		BsonDocument updated = before.clone();
+		for (Map.Entry<String, BsonValue> entry : update.getDocument(BsonDiff.SET, new BsonDocument()).entrySet()) {
+			this.parent(updated, entry.getKey()).put(this.leaf(entry.getKey()), entry.getValue());
+		}
+		for (String path : update.getDocument(BsonDiff.UNSET, new BsonDocument()).keySet()) {
+			this.parent(updated, path).remove(this.leaf(path));
+		}
+		assertEquals(after, updated);
+		return update;
+	}
+
+	private BsonDocument parent(BsonDocument document, String path) {
+		String[] fields = path.split("\\.");
+		BsonDocument parent = document;
+		for (int i = 0; i < fields.length - 1; i++) {
+			parent = parent.getDocument(fields[i]);
+		}
+		return parent;
+	}
+
+	private String leaf(String path) {
+		return path.substring(path.lastIndexOf('.') + 1);
+	}
+}
@@ -0,0 +1,61 @@
+package io.purchaise.mongolay.benchmarks;
+
+import io.purchaise.mongolay.AccessLevelType;
+import io.purchaise.mongolay.MongoRelay;
+import io.purchaise.mongolay.RelayCollection;
+import io.purchaise.mongolay.RelayItemResult;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that a bulk delete reports and keeps the documents denied by access control, whichever chunk they fall in
+ */
+public class BulkDeleteAccessTest {
+	@Test
+	public void deletesTheAccessibleDocumentsOfEveryChunk() {
+		// the even documents are writable, the odd ones are not, spread over two chunks
+		List<Document> documents = new ArrayList<>();
+		Set<ObjectId> denied = new HashSet<>();
+		for (int i = 0; i < RelayCollection.DEFAULT_CHUNK_SIZE + 3; i++) {
+			String role = i % 2 == 0 ? "a" : "b";
+			Document document = new Document("_id", new ObjectId()).append("readACL", List.of(role)).append("writeACL", List.of(role));
+			documents.add(document);
+			if (i % 2 == 1) {
+				denied.add(document.getObjectId("_id"));
+			}
+		}
+		InMemoryDatabase database = new InMemoryDatabase().insert("items", documents);
+		RelayCollection<Document> items = new MongoRelay(database.database(), List.of("a"))
+			.withACL("items", AccessLevelType.WRITE).on("items").getCollection();
+
+		ObjectId missing = new ObjectId();
+		List<ObjectId> ids = documents.stream().map(document -> document.getObjectId("_id")).collect(Collectors.toList());
+		ids.add(RelayCollection.DEFAULT_CHUNK_SIZE - 1, missing);
+		List<RelayItemResult<ObjectId>> results = items.deleteItems(ids, null);
+
+		assertEquals(ids.size(), results.size());
+		for (int i = 0; i < ids.size(); i++) {
+			ObjectId id = ids.get(i);
+			RelayItemResult<ObjectId> result = results.get(i);
+			assertEquals(id, result.getItem());
+			if (id.equals(missing)) {
+				assertEquals(404, result.getError().getStatusCode());
+			} else if (denied.contains(id)) {
+				assertEquals(403, result.getError().getStatusCode());
+			} else {
+				assertTrue(result.isSuccess());
+			}
+		}
+
+		Set<ObjectId> remaining = database.database().getCollection("items").find().into(new ArrayList<>()).stream()
+			.map(document -> document.getObjectId("_id"))
+			.collect(Collectors.toSet());
+		assertEquals(denied, remaining);
+	}
+}
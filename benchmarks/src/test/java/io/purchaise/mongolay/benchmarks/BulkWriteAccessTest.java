@@ -0,0 +1,92 @@
+package io.purchaise.mongolay.benchmarks;
+
+import com.mongodb.client.model.Filters;
+import io.purchaise.mongolay.AccessLevelType;
+import io.purchaise.mongolay.MongoRelay;
+import io.purchaise.mongolay.RelayCollection;
+import io.purchaise.mongolay.RelayItemResult;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that a bulk write reports and skips the items denied by access control, whichever chunk they fall in
+ */
+public class BulkWriteAccessTest {
+	private InMemoryDatabase database;
+	// the even documents are writable, the odd ones are not
+	private List<Document> documents;
+
+	@Before
+	public void setup() {
+		documents = new ArrayList<>();
+		for (int i = 0; i < 7; i++) {
+			String role = i % 2 == 0 ? "a" : "b";
+			documents.add(new Document("_id", new ObjectId()).append("name", "document")
+				.append("readACL", List.of(role)).append("writeACL", List.of(role)));
+		}
+		database = new InMemoryDatabase().insert("items", documents);
+	}
+
+	@Test
+	public void writesTheAccessibleItemsOfEveryChunk() {
+		Document missing = new Document("_id", new ObjectId()).append("name", "missing");
+		Document created = new Document("name", "created");
+		List<Document> items = List.of(
+			this.renamed(0), this.renamed(1), created,
+			this.renamed(2), this.renamed(3), missing,
+			this.renamed(4)
+		);
+		List<RelayItemResult<Document>> results = this.items().insertOrUpdateAll(items, null, 3, false);
+
+		assertEquals(List.of(200, 403, 200, 200, 403, 404, 200), this.statuses(results));
+		for (int i = 0; i < 5; i++) {
+			assertEquals(i % 2 == 0 ? "renamed" : "document", this.stored(documents.get(i)).getString("name"));
+		}
+		assertNotNull(created.getObjectId("_id"));
+		assertEquals("created", this.stored(created).getString("name"));
+		assertNull(this.stored(missing));
+	}
+
+	@Test
+	public void stopsOrderedWritesAtTheFirstDenial() {
+		List<Document> items = List.of(
+			this.renamed(0), this.renamed(2),
+			this.renamed(4), this.renamed(1),
+			this.renamed(6), this.renamed(0)
+		);
+		List<RelayItemResult<Document>> results = this.items().insertOrUpdateAll(items, null, 2, true);
+
+		assertEquals(List.of(200, 200, 200, 403, 424, 424), this.statuses(results));
+		assertEquals("renamed", this.stored(documents.get(4)).getString("name"));
+		assertEquals("document", this.stored(documents.get(1)).getString("name"));
+		assertEquals("document", this.stored(documents.get(6)).getString("name"));
+	}
+
+	private RelayCollection<Document> items() {
+		return new MongoRelay(database.database(), List.of("a")).withACL("items", AccessLevelType.WRITE).on("items").getCollection();
+	}
+
+	private Document renamed(int index) {
+		Document renamed = new Document(documents.get(index));
+		renamed.put("name", "renamed");
+		return renamed;
+	}
+
+	private Document stored(Document document) {
+		return database.database().getCollection("items").find(Filters.eq("_id", document.getObjectId("_id"))).first();
+	}
+
+	private List<Integer> statuses(List<RelayItemResult<Document>> results) {
+		return results.stream()
+			.map(result -> result.isSuccess() ? 200 : result.getError().getStatusCode())
+			.collect(Collectors.toList());
+	}
+}
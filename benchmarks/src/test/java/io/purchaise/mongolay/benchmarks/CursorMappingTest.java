@@ -0,0 +1,48 @@
+package io.purchaise.mongolay.benchmarks;
+
+import io.purchaise.mongolay.MongoRelay;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that iterating a relay maps the references whatever the cursor batch size
+ */
+public class CursorMappingTest {
+	@Test
+	public void mapsReferencesOneByOne() {
+		this.assertMapped(this.forEach(1));
+	}
+
+	@Test
+	public void mapsReferencesChunkByChunk() {
+		this.assertMapped(this.forEach(2));
+	}
+
+	private List<Models.Order> forEach(int cursorBatchSize) {
+		Models.Supplier supplier = new Models.Supplier();
+		List<Models.Order> orders = new ArrayList<>();
+		for (int i = 0; i < 5; i++) {
+			Models.Order order = new Models.Order();
+			order.supplierId = supplier._id;
+			orders.add(order);
+		}
+		InMemoryDatabase database = new InMemoryDatabase().insert("suppliers", List.of(supplier)).insert("orders", orders);
+		MongoRelay relay = new MongoRelay(database.database()).withCursorBatchSize(cursorBatchSize);
+
+		List<Models.Order> results = new ArrayList<>();
+		relay.on(Models.Order.class).getCollection().find().forEach(results::add);
+		return results;
+	}
+
+	private void assertMapped(List<Models.Order> orders) {
+		assertEquals(5, orders.size());
+		for (Models.Order order : orders) {
+			assertNotNull(order.supplier);
+			assertEquals(order.supplierId, order.supplier._id);
+		}
+	}
+}
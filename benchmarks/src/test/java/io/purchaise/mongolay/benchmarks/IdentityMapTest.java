@@ -0,0 +1,54 @@
+package io.purchaise.mongolay.benchmarks;
+
+import io.purchaise.mongolay.references.IdentityMap;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that the identity map only serves a document at the depth and projection it was mapped with
+ */
+public class IdentityMapTest {
+	@Test
+	public void servesDocumentsAtTheirDepth() {
+		IdentityMap identityMap = new IdentityMap();
+		ObjectId id = new ObjectId();
+		Models.Supplier shallow = new Models.Supplier();
+		identityMap.put("suppliers", id, 1, shallow);
+
+		assertSame(shallow, identityMap.get("suppliers", id, 1));
+		assertNull(identityMap.get("suppliers", id, 2));
+
+		Models.Supplier deep = new Models.Supplier();
+		identityMap.put("suppliers", id, 2, deep);
+		assertSame(shallow, identityMap.get("suppliers", id, 1));
+		assertSame(deep, identityMap.get("suppliers", id, 2));
+		assertEquals(3, identityMap.getHits());
+		assertEquals(1, identityMap.getMisses());
+	}
+
+	@Test
+	public void servesProjectedDocumentsToTheSameProjection() {
+		IdentityMap identityMap = new IdentityMap();
+		ObjectId id = new ObjectId();
+		Document projection = new Document("name", 1);
+		identityMap.put("suppliers", id, 1, projection, new Models.Supplier());
+
+		assertNotNull(identityMap.get("suppliers", id, 1, new Document("name", 1)));
+		assertNull(identityMap.get("suppliers", id, 1, null));
+	}
+
+	@Test
+	public void removesEveryDepthOfADocument() {
+		IdentityMap identityMap = new IdentityMap();
+		ObjectId id = new ObjectId();
+		identityMap.put("suppliers", id, 1, new Models.Supplier());
+		identityMap.put("suppliers", id, 2, new Models.Supplier());
+		identityMap.remove("suppliers", id);
+
+		assertNull(identityMap.get("suppliers", id, 1));
+		assertNull(identityMap.get("suppliers", id, 2));
+	}
+}
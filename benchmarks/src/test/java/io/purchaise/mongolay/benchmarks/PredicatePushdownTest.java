@@ -0,0 +1,173 @@
+package io.purchaise.mongolay.benchmarks;
+
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Field;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Sorts;
+import io.purchaise.mongolay.options.PredicatePushdown;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that a pipeline rewritten around the calculation stages returns the documents the original order did.
+ * The stages are run in memory, the calculation computes the total of each document from stored fields.
+ */
+public class PredicatePushdownTest {
+	private static final PredicatePushdown PUSHDOWN = new PredicatePushdown(Set.of("_id", "name", "status", "price", "quantity"));
+	private static final List<Bson> OPTIONS_STAGES = List.of(
+		new Document("$set", new Document("total", new Document("$multiply", List.of("$price", "$quantity"))))
+	);
+	private static final List<Document> DOCUMENTS = List.of(
+		PredicatePushdownTest.document(1, "f", "open", 10, 1),
+		PredicatePushdownTest.document(2, "e", "open", 10, 3),
+		PredicatePushdownTest.document(3, "d", "closed", 10, 5),
+		PredicatePushdownTest.document(4, "c", "open", 5, 5),
+		PredicatePushdownTest.document(5, "b", "open", 2, 4),
+		PredicatePushdownTest.document(6, "a", "open", 30, 1)
+	);
+
+	@Test
+	public void splitsFiltersMixingStoredAndCalculatedFields() {
+		List<Bson> pipeline = List.of(
+			Aggregates.match(Filters.and(Filters.eq("status", "open"), Filters.gte("total", 20))),
+			Aggregates.sort(Sorts.ascending("name")),
+			Aggregates.limit(2)
+		);
+		List<Bson> rewritten = this.assertSameResults(pipeline, 6, 4);
+
+		assertEquals(this.bson(Aggregates.match(Filters.eq("status", "open"))), this.bson(rewritten.get(0)));
+		assertEquals(this.bson(Aggregates.sort(Sorts.ascending("name"))), this.bson(rewritten.get(1)));
+		assertEquals(this.bson(OPTIONS_STAGES.get(0)), this.bson(rewritten.get(2)));
+		assertEquals(this.bson(Aggregates.match(Filters.gte("total", 20))), this.bson(rewritten.get(3)));
+		assertEquals(this.bson(Aggregates.limit(2)), this.bson(rewritten.get(4)));
+	}
+
+	@Test
+	public void keepsStagesFollowingCalculatedSorts() {
+		List<Bson> pipeline = List.of(
+			Aggregates.match(Filters.eq("status", "open")),
+			Aggregates.sort(Sorts.descending("total")),
+			Aggregates.sort(Sorts.ascending("name")),
+			Aggregates.skip(1)
+		);
+		List<Bson> rewritten = this.assertSameResults(pipeline, 5, 4, 2, 1);
+
+		assertEquals(this.bson(OPTIONS_STAGES.get(0)), this.bson(rewritten.get(1)));
+		assertEquals(this.bson(Aggregates.skip(1)), this.bson(rewritten.get(4)));
+	}
+
+	@Test
+	public void pushesLimitsAheadOfCalculatedFilters() {
+		List<Bson> pipeline = List.of(
+			Aggregates.limit(4),
+			Aggregates.match(Filters.or(Filters.eq("status", "closed"), Filters.lt("total", 25)))
+		);
+		List<Bson> rewritten = this.assertSameResults(pipeline, 1, 3);
+
+		assertEquals(this.bson(Aggregates.limit(4)), this.bson(rewritten.get(0)));
+		assertEquals(this.bson(OPTIONS_STAGES.get(0)), this.bson(rewritten.get(1)));
+	}
+
+	@Test
+	public void stopsAtReshapingStages() {
+		List<Bson> pipeline = List.of(
+			Aggregates.set(new Field<>("status", "open")),
+			Aggregates.match(Filters.eq("status", "open")),
+			Aggregates.limit(5)
+		);
+		List<Bson> rewritten = this.assertSameResults(pipeline, 1, 2, 3, 4, 5);
+
+		assertEquals(this.bson(OPTIONS_STAGES.get(0)), this.bson(rewritten.get(0)));
+	}
+
+	/**
+	 * Runs the calculation stages followed by the pipeline, and the rewritten pipeline, asserting both return the expected documents
+	 * @return the rewritten pipeline
+	 */
+	private List<Bson> assertSameResults(List<Bson> pipeline, Integer... expected) {
+		List<Bson> original = new ArrayList<>(OPTIONS_STAGES);
+		original.addAll(pipeline);
+		List<Bson> rewritten = PUSHDOWN.rewrite(OPTIONS_STAGES, pipeline);
+
+		assertEquals(List.of(expected), this.ids(this.run(original)));
+		assertEquals(List.of(expected), this.ids(this.run(rewritten)));
+		return rewritten;
+	}
+
+	private List<Document> run(List<Bson> pipeline) {
+		List<Document> documents = DOCUMENTS.stream().map(Document::new).collect(Collectors.toList());
+		for (Bson stage : pipeline) {
+			BsonDocument bson = this.bson(stage);
+			String operator = bson.getFirstKey();
+			BsonValue value = bson.get(operator);
+			switch (operator) {
+				case "$match":
+					InMemoryFilter filter = new InMemoryFilter(value.asDocument());
+					documents = documents.stream().filter(filter::matches).collect(Collectors.toList());
+					break;
+				case "$set":
+					for (Document document : documents) {
+						value.asDocument().forEach((field, expression) -> document.put(field, this.evaluate(document, expression)));
+					}
+					break;
+				case "$sort":
+					documents.sort(this.comparator(value.asDocument()));
+					break;
+				case "$skip":
+					documents = documents.subList(Math.min(value.asNumber().intValue(), documents.size()), documents.size());
+					break;
+				case "$limit":
+					documents = documents.subList(0, Math.min(value.asNumber().intValue(), documents.size()));
+					break;
+				default:
+					throw new UnsupportedOperationException(operator);
+			}
+		}
+		return documents;
+	}
+
+	private Object evaluate(Document document, BsonValue expression) {
+		if (expression.isString() && expression.asString().getValue().startsWith("$")) {
+			return document.get(expression.asString().getValue().substring(1));
+		}
+		if (expression.isDocument() && expression.asDocument().containsKey("$multiply")) {
+			return expression.asDocument().getArray("$multiply").stream()
+				.mapToInt(factor -> ((Number) this.evaluate(document, factor)).intValue())
+				.reduce(1, (left, right) -> left * right);
+		}
+		if (expression.isString()) {
+			return expression.asString().getValue();
+		}
+		throw new UnsupportedOperationException(expression.toString());
+	}
+
+	@SuppressWarnings("unchecked")
+	private Comparator<Document> comparator(BsonDocument sort) {
+		Comparator<Document> comparator = (left, right) -> 0;
+		for (Map.Entry<String, BsonValue> entry : sort.entrySet()) {
+			Comparator<Document> key = Comparator.comparing(document -> (Comparable<Object>) document.get(entry.getKey()));
+			comparator = comparator.thenComparing(entry.getValue().asNumber().intValue() < 0 ? key.reversed() : key);
+		}
+		return comparator;
+	}
+
+	private List<Integer> ids(List<Document> documents) {
+		return documents.stream().map(document -> document.getInteger("_id")).collect(Collectors.toList());
+	}
+
+	private BsonDocument bson(Bson stage) {
+		return stage.toBsonDocument();
+	}
+
+	private static Document document(int id, String name, String status, int price, int quantity) {
+		return new Document("_id", id).append("name", name).append("status", status).append("price", price).append("quantity", quantity);
+	}
+}
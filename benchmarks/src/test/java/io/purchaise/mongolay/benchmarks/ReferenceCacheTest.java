@@ -0,0 +1,122 @@
+package io.purchaise.mongolay.benchmarks;
+
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.ReplaceOneModel;
+import io.purchaise.mongolay.AccessLevelType;
+import io.purchaise.mongolay.Constants;
+import io.purchaise.mongolay.MongoRelay;
+import io.purchaise.mongolay.RelayCollection;
+import io.purchaise.mongolay.references.ReferenceCache;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that the shared reference cache serves repeated references and forgets the documents written through the relay
+ */
+public class ReferenceCacheTest {
+	private Models.Supplier supplier;
+	private Models.Supplier other;
+	private ReferenceCache cache;
+	private MongoRelay relay;
+
+	@Before
+	public void setup() {
+		supplier = new Models.Supplier();
+		other = new Models.Supplier();
+		InMemoryDatabase database = new InMemoryDatabase().insert("suppliers", List.of(supplier, other));
+		cache = new ReferenceCache(100, 1, TimeUnit.HOURS).withEntity(Models.Supplier.class);
+		relay = new MongoRelay(database.database()).withCache(cache);
+	}
+
+	@Test
+	public void countsHitsAndMisses() {
+		Models.Order first = this.map(supplier);
+		assertSame(supplier, first.supplier);
+		assertEquals(0, cache.getHits());
+		assertEquals(1, cache.getMisses());
+		assertEquals(1, cache.size());
+
+		Models.Order second = this.map(supplier);
+		assertNotSame(supplier, second.supplier);
+		assertEquals(supplier._id, second.supplier._id);
+		assertEquals(1, cache.getHits());
+		assertEquals(1, cache.getMisses());
+		assertEquals(0.5, cache.getHitRatio(), 0);
+	}
+
+	@Test
+	public void skipsEntitiesNotCached() {
+		ReferenceCache empty = new ReferenceCache(100, 1, TimeUnit.HOURS);
+		relay.withCache(empty);
+		this.map(supplier);
+		assertEquals(0, empty.size());
+		assertEquals(0, empty.getMisses());
+	}
+
+	@Test
+	public void servesCopies() {
+		this.map(supplier);
+		Models.Supplier first = this.map(supplier).supplier;
+		first.name = "changed";
+		Models.Supplier second = this.map(supplier).supplier;
+
+		assertNotSame(first, second);
+		assertEquals("supplier", second.name);
+	}
+
+	@Test
+	public void skipsEntitiesWithReferences() {
+		cache.withEntity(Models.Order.class);
+		assertFalse(cache.isCacheable(Models.Order.class));
+		assertTrue(cache.isCacheable(Models.Supplier.class));
+	}
+
+	@Test
+	public void skipsAccessControlledCollections() {
+		relay.withACL(Models.Supplier.class, AccessLevelType.READ);
+		assertSame(supplier, this.map(supplier).supplier);
+		assertEquals(0, cache.size());
+		assertEquals(0, cache.getMisses());
+	}
+
+	@Test
+	public void evictsDocumentDeletedById() {
+		this.map(supplier);
+		this.map(other);
+		assertEquals(2, cache.size());
+
+		this.suppliers().deleteOne(Filters.eq(Constants.ID_KEY, supplier._id));
+		assertNull(cache.get("suppliers", supplier._id));
+		assertNotNull(cache.get("suppliers", other._id));
+		assertNull(this.map(supplier).supplier);
+	}
+
+	@Test
+	public void evictsCollectionOnBulkWrite() {
+		this.map(supplier);
+		this.map(other);
+		assertEquals(2, cache.size());
+
+		Models.Supplier renamed = new Models.Supplier();
+		renamed._id = supplier._id;
+		renamed.name = "renamed";
+		this.suppliers().bulkWrite(List.of(new ReplaceOneModel<>(Filters.eq(Constants.ID_KEY, supplier._id), renamed)));
+		assertEquals(0, cache.size());
+		assertSame(renamed, this.map(supplier).supplier);
+	}
+
+	private Models.Order map(Models.Supplier referenced) {
+		Models.Order order = new Models.Order();
+		order.supplierId = referenced._id;
+		return relay.map(List.of(order), Models.Order.class).get(0);
+	}
+
+	private RelayCollection<Models.Supplier> suppliers() {
+		return relay.on(Models.Supplier.class).getCollection();
+	}
+}
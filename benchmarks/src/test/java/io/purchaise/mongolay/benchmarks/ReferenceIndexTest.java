@@ -0,0 +1,138 @@
+package io.purchaise.mongolay.benchmarks;
+
+import io.purchaise.mongolay.MongoRelay;
+import io.purchaise.mongolay.annotations.Entity;
+import io.purchaise.mongolay.annotations.Reference;
+import org.bson.types.ObjectId;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that the fetched references are assigned to the sources they match, for references on several fields
+ * and references holding lists on either side
+ */
+public class ReferenceIndexTest {
+	@Entity(collection = "prices")
+	public static class Price {
+		public ObjectId _id = new ObjectId();
+		public String product;
+		public String region;
+
+		public Price() {
+		}
+
+		Price(String product, String region) {
+			this.product = product;
+			this.region = region;
+		}
+	}
+
+	@Entity(collection = "products")
+	public static class Product {
+		public ObjectId _id = new ObjectId();
+		public List<String> codes;
+
+		public Product() {
+		}
+
+		Product(String... codes) {
+			this.codes = List.of(codes);
+		}
+	}
+
+	public static class Line {
+		public String product;
+		public String region;
+		public String code;
+		public List<ObjectId> productIds;
+		public List<String> codes;
+
+		@Reference(from = { "product", "region" }, to = { "product", "region" })
+		public Price price;
+		@Reference(from = { "product", "region" }, to = { "product", "region" })
+		public List<Price> prices;
+		@Reference(from = "code", to = "codes")
+		public Product coded;
+		@Reference(from = "productIds")
+		public List<Product> products;
+		@Reference(from = "codes", to = "codes")
+		public List<Product> matching;
+	}
+
+	@Test
+	public void matchesEveryFieldOfMultipleFieldReferences() {
+		Price euA = new Price("a", "eu");
+		Price usA = new Price("a", "us");
+		Price euB = new Price("b", "eu");
+		Price global = new Price("c", null);
+		MongoRelay relay = new MongoRelay(new InMemoryDatabase().insert("prices", List.of(euA, usA, euB, global)).database());
+
+		List<Line> lines = relay.map(List.of(
+			this.line("a", "us"), this.line("b", "eu"), this.line("a", "eu"), this.line("b", "us"), this.line("c", null)
+		), Line.class);
+
+		assertSame(usA, lines.get(0).price);
+		assertSame(euB, lines.get(1).price);
+		assertSame(euA, lines.get(2).price);
+		assertNull(lines.get(3).price);
+		assertSame(global, lines.get(4).price);
+		assertEquals(List.of(usA), lines.get(0).prices);
+		assertEquals(List.of(), lines.get(3).prices);
+	}
+
+	@Test
+	public void matchesListValuedSources() {
+		Product first = new Product("x");
+		Product second = new Product("y");
+		Product third = new Product("z");
+		MongoRelay relay = new MongoRelay(new InMemoryDatabase().insert("products", List.of(first, second, third)).database());
+
+		Line some = new Line();
+		some.productIds = List.of(third._id, first._id);
+		Line one = new Line();
+		one.productIds = List.of(second._id);
+		List<Line> lines = relay.map(List.of(some, one), Line.class);
+
+		// the matches keep the order the references were fetched in
+		assertEquals(List.of(first._id, third._id), this.ids(lines.get(0).products));
+		assertEquals(List.of(second._id), this.ids(lines.get(1).products));
+	}
+
+	@Test
+	public void matchesListValuedTargets() {
+		Product first = new Product("a", "b");
+		Product second = new Product("c");
+		Product third = new Product("b", "d");
+		MongoRelay relay = new MongoRelay(new InMemoryDatabase().insert("products", List.of(first, second, third)).database());
+
+		Line single = new Line();
+		single.code = "c";
+		Line shared = new Line();
+		shared.code = "b";
+		Line both = new Line();
+		both.codes = List.of("a", "c");
+		Line none = new Line();
+		none.codes = List.of("e");
+		List<Line> lines = relay.map(List.of(single, shared, both, none), Line.class);
+
+		assertSame(second, lines.get(0).coded);
+		assertSame(first, lines.get(1).coded);
+		assertEquals(List.of(first._id, second._id), this.ids(lines.get(2).matching));
+		assertEquals(List.of(), lines.get(3).matching);
+	}
+
+	private Line line(String product, String region) {
+		Line line = new Line();
+		line.product = product;
+		line.region = region;
+		return line;
+	}
+
+	private List<ObjectId> ids(List<Product> products) {
+		return products.stream().map(product -> product._id).collect(Collectors.toList());
+	}
+}
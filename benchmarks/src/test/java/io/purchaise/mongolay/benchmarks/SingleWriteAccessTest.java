@@ -0,0 +1,126 @@
+package io.purchaise.mongolay.benchmarks;
+
+import com.mongodb.client.model.Filters;
+import io.purchaise.mongolay.AccessLevelType;
+import io.purchaise.mongolay.MongoRelay;
+import io.purchaise.mongolay.RelayCollection;
+import io.purchaise.mongolay.RelayException;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that the access check folded into single document reads and writes answers as the in memory check did
+ */
+public class SingleWriteAccessTest {
+	private InMemoryDatabase database;
+	private Document open;
+	private Document mine;
+	private Document theirs;
+
+	@Before
+	public void setup() {
+		open = new Document("_id", new ObjectId()).append("name", "open");
+		mine = new Document("_id", new ObjectId()).append("name", "mine")
+			.append("readACL", List.of("a")).append("writeACL", List.of("a"));
+		theirs = new Document("_id", new ObjectId()).append("name", "theirs").append("tag", "x")
+			.append("readACL", List.of("b")).append("writeACL", List.of("b"));
+		database = new InMemoryDatabase().insert("items", List.of(open, mine, theirs));
+	}
+
+	@Test
+	public void writesAccessibleDocuments() throws RelayException {
+		RelayCollection<Document> items = this.items(AccessLevelType.WRITE);
+		items.insertOrUpdate(this.renamed(open));
+		items.insertOrUpdate(this.renamed(mine));
+
+		assertEquals("renamed", this.stored(open).getString("name"));
+		assertEquals("renamed", this.stored(mine).getString("name"));
+	}
+
+	@Test
+	public void forbidsInaccessibleDocuments() {
+		RelayCollection<Document> items = this.items(AccessLevelType.WRITE);
+		this.assertStatus(403, () -> items.insertOrUpdate(this.renamed(theirs)));
+		this.assertStatus(403, () -> items.deleteItem(theirs));
+		assertEquals("theirs", this.stored(theirs).getString("name"));
+	}
+
+	@Test
+	public void requiresTheAccessOfDocumentsMatchingTheFilterOnly() throws RelayException {
+		RelayCollection<Document> items = this.items(AccessLevelType.WRITE);
+		this.assertStatus(403, () -> items.insertOrUpdate(this.renamed(theirs), Filters.eq("tag", "x")));
+
+		items.insertOrUpdate(this.renamed(theirs), Filters.eq("tag", "y"));
+		assertEquals("renamed", this.stored(theirs).getString("name"));
+	}
+
+	@Test
+	public void ignoresTheFilterWithoutAccessControl() throws RelayException {
+		RelayCollection<Document> items = new MongoRelay(database.database(), List.of("a")).on("items").getCollection();
+		items.insertOrUpdate(this.renamed(theirs), Filters.eq("tag", "y"));
+		assertEquals("renamed", this.stored(theirs).getString("name"));
+
+		items.deleteItem(theirs, Filters.eq("tag", "y"));
+		assertNull(this.stored(theirs));
+	}
+
+	@Test
+	public void reportsMissingDocuments() {
+		RelayCollection<Document> items = this.items(AccessLevelType.WRITE);
+		Document missing = new Document("_id", new ObjectId()).append("name", "missing");
+		this.assertStatus(404, () -> items.insertOrUpdate(missing));
+		this.assertStatus(404, () -> items.deleteItem(missing));
+	}
+
+	@Test
+	public void readsDocumentsWithStaleNormalizedAcl() throws RelayException {
+		// the acl array of the document was never backfilled, its access lists still grant the read
+		RelayCollection<Document> items = this.items(AccessLevelType.READ);
+		items.getMongoRelay().withNormalizedAcl(true);
+		assertEquals("mine", items.byId(mine.getObjectId("_id")).getString("name"));
+		this.assertStatus(403, () -> items.byId(theirs.getObjectId("_id")));
+	}
+
+	@Test
+	public void reportsConflictsOnWritesMissingAccessibleDocuments() {
+		RelayCollection<Document> items = this.items(AccessLevelType.WRITE);
+		items.getMongoRelay().withNormalizedAcl(true);
+		RelayException exception = this.assertStatus(409, () -> items.insertOrUpdate(this.renamed(mine)));
+		assertEquals(RelayCollection.WRITE_CONFLICT, exception.getDescription());
+	}
+
+	private RelayCollection<Document> items(AccessLevelType type) {
+		return new MongoRelay(database.database(), List.of("a")).withACL("items", type).on("items").getCollection();
+	}
+
+	private Document renamed(Document document) {
+		Document renamed = new Document(document);
+		renamed.put("name", "renamed");
+		return renamed;
+	}
+
+	private Document stored(Document document) {
+		return database.database().getCollection("items").find(Filters.eq("_id", document.getObjectId("_id"))).first();
+	}
+
+	private RelayException assertStatus(int status, Write write) {
+		try {
+			write.run();
+		} catch (RelayException exception) {
+			assertEquals(status, exception.getStatusCode());
+			return exception;
+		}
+		fail(String.format("Expected the status %d", status));
+		return null;
+	}
+
+	private interface Write {
+		void run() throws RelayException;
+	}
+}
@@ -2,12 +2,18 @@ package io.purchaise.mongolay;
 
 import com.mongodb.client.FindIterable;
 import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import io.purchaise.mongolay.utils.BoundedCache;
+import io.purchaise.mongolay.utils.RoleSet;
+import lombok.Value;
+import org.bson.BsonDocument;
 import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.BsonDocumentCodec;
 import org.bson.conversions.Bson;
 import org.bson.types.ObjectId;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.*;
 
 /**
  * Created by agonlohaj on 29 Oct, 2020
@@ -16,57 +22,264 @@ public class AccessControl {
 	// access level per row
 	public static final String READ_ACL = "readACL";
 	public static final String WRITE_ACL = "writeACL";
+	// denormalized access list, holding the read roles, the prefixed write roles or the public marker
+	public static final String ACL = "acl";
+	public static final String PUBLIC_ACL = "*public*";
+	public static final String WRITE_PREFIX = "w:";
+	public static final String WILDCARD = "*";
+
+	// rendered access filters, keyed by the roles and the access level
+	private static final BoundedCache<FilterKey, Bson> filters = new BoundedCache<>(1024);
 
 	private AccessLevelType type;
 	private List<String> userRoles;
+	private boolean normalized;
+	// the roles as a bitset, built on the first in memory check
+	private RoleSet roleSet;
+
+	@Value
+	private static class FilterKey {
+		List<String> roles;
+		AccessLevelType type;
+		boolean normalized;
+		boolean exact;
+	}
 
 	/**
 	 * constructor
 	 */
 	public AccessControl(List<String> userRoles, AccessLevelType type) {
+		this(userRoles, type, false);
+	}
+
+	/**
+	 * @param normalized whether the documents carry the denormalized {@link #ACL} array, which is then filtered on
+	 */
+	public AccessControl(List<String> userRoles, AccessLevelType type, boolean normalized) {
 		this.type = type;
 		this.userRoles = userRoles;
+		this.normalized = normalized;
 	}
 
 	/**
 	 * applies the access filter to the query
+	 * The filter is rendered once per (roles, access level) and shared across queries
 	 *
 	 * @return
 	 */
 	public List<Bson> applyAccessFilter() {
 		List<Bson> query = new ArrayList<>();
+		if (type != AccessLevelType.READ && type != AccessLevelType.WRITE) {
+			return query;
+		}
+		FilterKey key = new FilterKey(AccessControl.sortedRoles(userRoles), type, normalized, false);
+		query.add(filters.computeIfAbsent(key, AccessControl::renderAccessFilter));
+		return query;
+	}
+
+	/**
+	 * The access filter matching exactly the documents {@link RelayModel#isAccessible} accepts,
+	 * such that it can be folded into the filter of a single document read or write
+	 *
+	 * @return the filter, or null when the access level does not filter
+	 */
+	public Bson accessPredicate() {
+		if (type != AccessLevelType.READ && type != AccessLevelType.WRITE) {
+			return null;
+		}
+		FilterKey key = new FilterKey(AccessControl.sortedRoles(userRoles), type, normalized, true);
+		return filters.computeIfAbsent(key, AccessControl::renderAccessFilter);
+	}
+
+	/**
+	 * The roles in a stable order, such that the same roles share a cached filter whatever their order
+	 */
+	private static List<String> sortedRoles(List<String> userRoles) {
+		List<String> roles = new ArrayList<>(userRoles);
+		roles.sort(Comparator.nullsFirst(Comparator.naturalOrder()));
+		return roles;
+	}
+
+	/**
+	 * Builds the access filter of the given roles, without caching it
+	 *
+	 * @param userRoles the roles of the user
+	 * @param type the access level
+	 * @return the filter, or null when the access level does not filter
+	 */
+	public static Bson buildAccessFilter(List<String> userRoles, AccessLevelType type) {
+		boolean isRead = type == AccessLevelType.READ;
+		boolean isWrite = type == AccessLevelType.WRITE;
+		if (!isRead && !isWrite) {
+			return null;
+		}
+		// check if both don't exists, that means its a public thing
+		Bson notSet = Filters.and(Filters.exists(READ_ACL, false), Filters.exists(WRITE_ACL, false));
+		// check if both their sizes are empty
+		Bson bothEmpty = Filters.and(Filters.size(READ_ACL, 0), Filters.size(WRITE_ACL, 0));
+		// if one of the above hits, its all public, we assume
+		// otherwise check if role is contained on one of them, writing requires a write role
+		Bson roleCheck = isRead ?
+				Filters.or(Filters.in(READ_ACL, userRoles), Filters.in(WRITE_ACL, userRoles)) :
+				Filters.in(WRITE_ACL, userRoles);
+		return Filters.or(
+				notSet,
+				bothEmpty,
+				roleCheck
+		);
+	}
+
+	/**
+	 * Builds the access filter of the given roles with the semantics of {@link RelayModel#isAccessible},
+	 * missing and empty lists are both public and the {@link #WILDCARD} role grants everyone
+	 *
+	 * @param userRoles the roles of the user
+	 * @param type the access level
+	 * @return the filter, or null when the access level does not filter
+	 */
+	public static Bson buildAccessPredicate(List<String> userRoles, AccessLevelType type) {
 		boolean isRead = type == AccessLevelType.READ;
 		boolean isWrite = type == AccessLevelType.WRITE;
+		if (!isRead && !isWrite) {
+			return null;
+		}
+		List<String> roles = new ArrayList<>(userRoles);
+		roles.add(WILDCARD);
+		// neither list has a first element
+		Bson isPublic = Filters.nor(Filters.exists(READ_ACL + ".0"), Filters.exists(WRITE_ACL + ".0"));
+		Bson roleCheck = isRead ?
+				Filters.or(Filters.in(READ_ACL, roles), Filters.in(WRITE_ACL, roles)) :
+				Filters.in(WRITE_ACL, roles);
+		return Filters.or(isPublic, roleCheck);
+	}
+
+	/**
+	 * Builds the access filter of the given roles against the denormalized {@link #ACL} array.
+	 * A single $in, which a multikey index on the array serves
+	 *
+	 * @param userRoles the roles of the user
+	 * @param type the access level
+	 * @return the filter, or null when the access level does not filter
+	 */
+	public static Bson buildAclFilter(List<String> userRoles, AccessLevelType type) {
+		boolean isRead = type == AccessLevelType.READ;
+		boolean isWrite = type == AccessLevelType.WRITE;
+		if (!isRead && !isWrite) {
+			return null;
+		}
+		// public documents and the write roles grant both reading and writing
+		List<String> values = new ArrayList<>();
+		values.add(PUBLIC_ACL);
+		values.add(WRITE_PREFIX + WILDCARD);
+		userRoles.forEach(role -> values.add(WRITE_PREFIX + role));
 		if (isRead) {
-			// check if both don't exists, that means its a public thing
-			Bson notSet = Filters.and(Filters.exists(READ_ACL, false), Filters.exists(WRITE_ACL, false));
-			// check if both their sizes are empty
-			Bson bothEmpty = Filters.and(Filters.size(READ_ACL, 0), Filters.size(WRITE_ACL, 0));
-			// if one of the above hits, its all public, we assume
-
-			// otherwise check if role is contained on one of them
-			Bson roleCheck = Filters.or(Filters.in(READ_ACL, userRoles), Filters.in(WRITE_ACL, userRoles));
-			query.add(Filters.or(
-					notSet,
-					bothEmpty,
-					roleCheck
-			));
-		}
-		if (isWrite) {
-			// check if both don't exists, that means its a public thing
-			Bson notSet = Filters.and(Filters.exists(READ_ACL, false), Filters.exists(WRITE_ACL, false));
-			// check if both their sizes are empty
-			Bson bothEmpty = Filters.and(Filters.size(READ_ACL, 0), Filters.size(WRITE_ACL, 0));
-
-			// otherwise check if role is within Write access
-			Bson roleCheck = Filters.in(WRITE_ACL, userRoles);
-			query.add(Filters.or(
-					notSet,
-					bothEmpty,
-					roleCheck
-			));
+			values.add(WILDCARD);
+			values.addAll(userRoles);
 		}
-		return query;
+		return Filters.in(ACL, values);
+	}
+
+	/**
+	 * Encodes the access lists of a document into the denormalized {@link #ACL} array
+	 *
+	 * @param readACL the read roles, null when missing
+	 * @param writeACL the write roles, null when missing
+	 * @return the public marker when both are empty, otherwise the read roles and the prefixed write roles
+	 */
+	public static List<String> encodeAcl(Collection<String> readACL, Collection<String> writeACL) {
+		Set<String> acl = new LinkedHashSet<>();
+		if (readACL != null) {
+			acl.addAll(readACL);
+		}
+		if (writeACL != null) {
+			writeACL.forEach(role -> acl.add(WRITE_PREFIX + role));
+		}
+		if (acl.isEmpty()) {
+			acl.add(PUBLIC_ACL);
+		}
+		return new ArrayList<>(acl);
+	}
+
+	/**
+	 * Renders the access filter into an immutable document, which the driver encodes by copying its bytes
+	 */
+	private static RawBsonDocument renderAccessFilter(FilterKey key) {
+		Bson filter;
+		if (key.isNormalized()) {
+			filter = AccessControl.buildAclFilter(key.getRoles(), key.getType());
+		} else if (key.isExact()) {
+			filter = AccessControl.buildAccessPredicate(key.getRoles(), key.getType());
+		} else {
+			filter = AccessControl.buildAccessFilter(key.getRoles(), key.getType());
+		}
+		BsonDocument document = filter.toBsonDocument();
+		return new RawBsonDocument(document, new BsonDocumentCodec());
+	}
+
+	/**
+	 * Checks the access on the document matched by the key and the filter, reading only its access lists
+	 *
+	 * @param collection the collection of the document
+	 * @param filter the additional filter, may reference calculated fields
+	 * @param key the key of the document
+	 * @return whether a document matched
+	 * @throws RelayException forbidden when the document matched but is not accessible
+	 */
+	public boolean checkAccess(RelayCollection<?> collection, Bson filter, Bson key) throws RelayException {
+		Document document = AccessControl.findAccessLists(collection, filter, key);
+		if (document == null) {
+			return false;
+		}
+		if (!this.isAccessible(document)) {
+			throw new RelayException(Http.Status.FORBIDDEN, "access_forbidden");
+		}
+		return true;
+	}
+
+	/**
+	 * @param document a document holding at least the access lists
+	 * @return whether the document is accessible
+	 */
+	public boolean isAccessible(Document document) {
+		List<String> readACL = document.get(READ_ACL, new ArrayList<>());
+		List<String> writeACL = document.get(WRITE_ACL, new ArrayList<>());
+		return RelayModel.isAccessible(type, this.getRoleSet(), readACL, writeACL);
+	}
+
+	private RoleSet getRoleSet() {
+		if (roleSet == null) {
+			roleSet = RoleSet.of(userRoles);
+		}
+		return roleSet;
+	}
+
+	/**
+	 * Finds the _id and the access lists of the document matched by the key and the filter, without access control
+	 */
+	protected static Document findAccessLists(RelayCollection<?> collection, Bson filter, Bson key) {
+		return AccessControl.queryAccessLists(collection, filter, key).first();
+	}
+
+	/**
+	 * Finds the _id and the access lists of the documents matched by the key and the filter, without access control
+	 * @param fields the other fields to project
+	 */
+	protected static List<Document> findAllAccessLists(RelayCollection<?> collection, Bson filter, Bson key, String... fields) {
+		return AccessControl.queryAccessLists(collection, filter, key, fields).into(new ArrayList<>());
+	}
+
+	private static FindIterable<Document> queryAccessLists(RelayCollection<?> collection, Bson filter, Bson key, String... fields) {
+		List<String> projected = new ArrayList<>(List.of(Constants.ID_KEY, READ_ACL, WRITE_ACL));
+		projected.addAll(Arrays.asList(fields));
+		List<Bson> findFilters = new ArrayList<>();
+		findFilters.add(key);
+		if (filter != null) {
+			findFilters.add(filter);
+		}
+		return collection.find(Document.class)
+				.withoutAccess()
+				.filter(Filters.and(findFilters))
+				.projection(Projections.include(projected));
 	}
 
 	public Document isAccessible(RelayCollection<Document> collection, Bson filter, ObjectId id) throws RelayException {
@@ -92,7 +305,7 @@ public class AccessControl {
 		}
 		List<String> readACL = document.get(READ_ACL, new ArrayList<>());
 		List<String> writeACL = document.get(WRITE_ACL, new ArrayList<>());
-		if (!RelayModel.isAccessible(type, userRoles, readACL, writeACL)) {
+		if (!RelayModel.isAccessible(type, this.getRoleSet(), readACL, writeACL)) {
 			throw new RelayException(Http.Status.FORBIDDEN, "access_forbidden");
 		}
 		return document;
@@ -119,7 +332,7 @@ public class AccessControl {
 		if (document == null) {
 			return null;
 		}
-		if (!document.isAccessible(type, userRoles)) {
+		if (!document.isAccessible(type, this.getRoleSet())) {
 			throw new RelayException(Http.Status.FORBIDDEN, "access_forbidden");
 		}
 		return document;
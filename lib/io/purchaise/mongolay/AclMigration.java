@@ -0,0 +1,57 @@
+package io.purchaise.mongolay;
+
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.*;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Backfills the denormalized acl array of the documents written before the normalized access control was enabled.
+ * Documents are walked in _id order, such that an interrupted migration can simply be run again
+ */
+public class AclMigration {
+	private AclMigration() {}
+
+	/**
+	 * @param collection the collection to migrate
+	 * @param batchSize the number of documents read and written at once
+	 * @return the number of updated documents
+	 */
+	public static long backfill(MongoCollection<Document> collection, int batchSize) {
+		if (batchSize < 1) {
+			throw new IllegalArgumentException("The batch size must be positive");
+		}
+		Bson projection = Projections.include(Constants.ID_KEY, AccessControl.READ_ACL, AccessControl.WRITE_ACL);
+		long updated = 0;
+		Object last = null;
+		while (true) {
+			Bson filter = last == null ? new Document() : Filters.gt(Constants.ID_KEY, last);
+			List<Document> batch = collection.find(filter)
+					.projection(projection)
+					.sort(Sorts.ascending(Constants.ID_KEY))
+					.limit(batchSize)
+					.into(new ArrayList<>());
+			if (batch.isEmpty()) {
+				return updated;
+			}
+			List<WriteModel<Document>> writes = new ArrayList<>(batch.size());
+			for (Document document : batch) {
+				List<String> acl = AccessControl.encodeAcl(
+						document.getList(AccessControl.READ_ACL, String.class),
+						document.getList(AccessControl.WRITE_ACL, String.class)
+				);
+				writes.add(new UpdateOneModel<>(
+						Filters.eq(Constants.ID_KEY, document.get(Constants.ID_KEY)),
+						Updates.set(AccessControl.ACL, acl)
+				));
+			}
+			BulkWriteResult result = collection.bulkWrite(writes, new BulkWriteOptions().ordered(false));
+			updated += result.getModifiedCount();
+			last = batch.get(batch.size() - 1).get(Constants.ID_KEY);
+		}
+	}
+}
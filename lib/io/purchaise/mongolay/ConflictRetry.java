@@ -0,0 +1,83 @@
+package io.purchaise.mongolay;
+
+import lombok.Getter;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Retries an operation failing with a version conflict, waiting an exponential backoff with jitter in between.
+ * The operation should reload the model and reapply its change on each attempt, as a stale model would conflict again
+ */
+@Getter
+public class ConflictRetry {
+	public static final String VERSION_CONFLICT = "version_conflict";
+	public static final ConflictRetry DEFAULT = new ConflictRetry(5, 10, 1000);
+
+	/**
+	 * The number of attempts, including the first one
+	 */
+	private final int maxAttempts;
+	/**
+	 * The delay before the first retry, doubled on each retry
+	 */
+	private final long baseDelayMillis;
+	/**
+	 * The upper bound of the delay
+	 */
+	private final long maxDelayMillis;
+
+	public ConflictRetry(int maxAttempts, long baseDelayMillis, long maxDelayMillis) {
+		if (maxAttempts < 1) {
+			throw new IllegalArgumentException("The attempts must be positive");
+		}
+		this.maxAttempts = maxAttempts;
+		this.baseDelayMillis = baseDelayMillis;
+		this.maxDelayMillis = maxDelayMillis;
+	}
+
+	@FunctionalInterface
+	public interface Operation<T> {
+		T run() throws RelayException;
+	}
+
+	/**
+	 * @param exception the failure of an attempt
+	 * @return whether it failed with a version conflict
+	 */
+	public static boolean isConflict(RelayException exception) {
+		return exception.getStatusCode() == Http.Status.CONFLICT && VERSION_CONFLICT.equals(exception.getDescription());
+	}
+
+	/**
+	 * Runs the operation until it does not conflict or the attempts are exhausted
+	 * @param operation the operation
+	 * @return the result of the operation
+	 * @throws RelayException the error of the operation, the conflict of the last attempt when all conflicted
+	 */
+	public <T> T run(Operation<T> operation) throws RelayException {
+		for (int attempt = 1; ; attempt++) {
+			try {
+				return operation.run();
+			} catch (RelayException ex) {
+				if (!ConflictRetry.isConflict(ex) || attempt >= maxAttempts) {
+					throw ex;
+				}
+				this.backoff(attempt);
+			}
+		}
+	}
+
+	private void backoff(int attempt) throws RelayException {
+		long delay = Math.min(maxDelayMillis, baseDelayMillis << Math.min(attempt - 1, 30));
+		if (delay <= 0) {
+			return;
+		}
+		try {
+			// full jitter, such that conflicting writers spread out
+			Thread.sleep(ThreadLocalRandom.current().nextLong(delay + 1));
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new RelayException(Http.Status.CONFLICT, VERSION_CONFLICT);
+		}
+	}
+}
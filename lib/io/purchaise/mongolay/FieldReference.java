@@ -1,6 +1,7 @@
 package io.purchaise.mongolay;
 
 
+import io.purchaise.mongolay.utils.FieldAccessor;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.ToString;
@@ -17,8 +18,13 @@ public class FieldReference {
     String target;
 
     public <T> Field getSourceField(Class<T> clazz) {
+        FieldAccessor accessor = this.getSourceAccessor(clazz);
+        return accessor != null ? accessor.getField() : null;
+    }
+
+    public <T> FieldAccessor getSourceAccessor(Class<T> clazz) {
         String source = hasDynamicSource() ? getFormattedSource() : getSource();
-        return FieldUtils.getField(clazz, source, true);
+        return FieldAccessor.of(clazz, source);
     }
 
     public String getFormattedSource() {
@@ -43,14 +49,10 @@ public class FieldReference {
     }
 
     public Object getValue (Object item) {
-        try {
-            return FieldUtils.readField(this.getSourceField(item.getClass()), item, true);
-        } catch (NullPointerException e) {
-            return null;
-        } catch (IllegalAccessException e) {
-            e.printStackTrace();
+        if (item == null) {
             return null;
         }
+        return FieldReference.read(this.getSourceAccessor(item.getClass()), item);
     }
 
     public <T> String getMongoTarget (Class<T> clazz) {
@@ -59,19 +61,27 @@ public class FieldReference {
     }
 
     public <T> Field getTargetField (Class<T> clazz) {
+        FieldAccessor accessor = this.getTargetAccessor(clazz);
+        return accessor != null ? accessor.getField() : null;
+    }
+
+    public <T> FieldAccessor getTargetAccessor (Class<T> clazz) {
         String target = hasDynamicTarget() ? getFormattedTarget() : getTarget();
-        return FieldUtils.getField(clazz, target, true);
+        return FieldAccessor.of(clazz, target);
     }
 
     public Object getTargetValue (Object item) {
-        try {
-            return FieldUtils.readField(getTargetField(item.getClass()), item, true);
-        } catch (NullPointerException e) {
-            return null;
-        } catch (IllegalAccessException e) {
-            e.printStackTrace();
+        if (item == null) {
             return null;
         }
+        return FieldReference.read(this.getTargetAccessor(item.getClass()), item);
+    }
+
+    private static Object read (FieldAccessor accessor, Object item) {
+        if (accessor == null) {
+            throw new IllegalArgumentException("The field must not be null");
+        }
+        return accessor.get(item);
     }
 
     public static <T> String getMongoClass (String field, Class<T> clazz) {
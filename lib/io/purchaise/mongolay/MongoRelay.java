@@ -1,19 +1,25 @@
 package io.purchaise.mongolay;
 
 import com.mongodb.MongoCommandException;
+import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
 import com.mongodb.client.model.*;
 import io.purchaise.mongolay.annotations.*;
 import io.purchaise.mongolay.annotations.atlasSearch.*;
 import io.purchaise.mongolay.annotations.atlasSearch.customAnalyzers.*;
+import io.purchaise.mongolay.options.FieldConfig;
 import io.purchaise.mongolay.options.IOption;
+import io.purchaise.mongolay.options.OptionsPipeline;
 import io.purchaise.mongolay.options.enums.OptionType;
 import io.purchaise.mongolay.references.IReference;
-import io.purchaise.mongolay.references.InnerReferenceField;
-import io.purchaise.mongolay.references.ReferencedField;
+import io.purchaise.mongolay.references.IdentityMap;
+import io.purchaise.mongolay.references.ReferenceCache;
+import io.purchaise.mongolay.references.ReferenceRegistry;
+import io.purchaise.mongolay.references.ReferenceStrategy;
 import io.purchaise.mongolay.utils.ClassUtils;
+import io.purchaise.mongolay.utils.ExecutorUtils;
+import io.purchaise.mongolay.utils.FieldAccessor;
 import io.purchaise.mongolay.utils.HibernateValidator;
-import lombok.AllArgsConstructor;
 import lombok.Getter;
 import lombok.Setter;
 import org.apache.commons.lang3.reflect.FieldUtils;
@@ -24,6 +30,7 @@ import org.reflections.Reflections;
 
 import java.lang.reflect.Field;
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -32,8 +39,12 @@ import static io.purchaise.mongolay.utils.FieldType.EMBEDDED_DOCUMENTS;
 /**
  * Created by agonlohaj on 07 Aug, 2019
  */
-@AllArgsConstructor
 public class MongoRelay {
+	/**
+	 * The batch size of the refresh of the materialized calculated fields started by an options change
+	 */
+	public static final int DEFAULT_MATERIALIZATION_BATCH_SIZE = 1000;
+
 	/**
 	 * Simple Mongo Database
 	 */
@@ -54,6 +65,12 @@ public class MongoRelay {
 	 */
 	@Getter
 	private int maxDepth = 1;
+
+	/**
+	 * Number of documents a cursor reads before mapping their references at once, 1 maps one document at a time
+	 */
+	@Getter
+	private int cursorBatchSize = 1;
 	@Getter
 	private Map<Class<?>, String> collections = new HashMap<>();
 	@Getter
@@ -61,8 +78,49 @@ public class MongoRelay {
 	@Getter
 	private Map<Class, Integer> classMaxDepth = new HashMap<>();
 
+	/**
+	 * Executor on which independent references are resolved concurrently, null resolves them one after the other
+	 */
+	@Getter
+	private Executor referenceExecutor;
+
+	/**
+	 * Caps the number of references resolved concurrently by this relay and its copies
+	 */
+	private Semaphore referencePermits;
+
+	/**
+	 * First level cache of the referenced documents, shared by this relay and its copies
+	 */
+	@Getter
+	private IdentityMap identityMap;
+
+	/**
+	 * Second level cache of the referenced documents, shared across relays
+	 */
+	@Getter
+	private ReferenceCache referenceCache;
+
+	/**
+	 * How the references of aggregation results are resolved, unless a query selects otherwise
+	 */
+	@Getter
+	private ReferenceStrategy referenceStrategy = ReferenceStrategy.CLIENT;
+
 	private List<String> roles = new ArrayList<>();
 
+	/**
+	 * Whether the documents carry the denormalized acl array, which access control then filters on
+	 */
+	@Getter
+	private boolean normalizedAcl;
+
+	/**
+	 * Whether loaded models remember their document, such that their updates only send the changed fields
+	 */
+	@Getter
+	private boolean partialUpdates;
+
 	Map<Class, AccessLevelType> collectionClassAcl = new HashMap<>();
 	Map<String, AccessLevelType> collectionNameAcl = new HashMap<>();
 
@@ -74,6 +132,21 @@ public class MongoRelay {
 	@Getter
 	private Map<Class<?>, Map<OptionType, IOption>> options = new HashMap<>();
 
+	/**
+	 * The compiled calculation options of each class, shared with the copies of the relay as the options are
+	 */
+	private Map<Class<?>, OptionsPipeline> optionsPipelines = new ConcurrentHashMap<>();
+
+	/**
+	 * The classes whose calculated fields are stored in the documents
+	 */
+	private Set<Class<?>> materializedOptions = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * Refreshes the materialized calculated fields once the options change, null to refresh them manually
+	 */
+	private Executor materializationExecutor;
+
 	public MongoRelay() {}
 
 	/**
@@ -104,6 +177,23 @@ public class MongoRelay {
 		this.options = options;
 	}
 
+	public MongoRelay (MongoDatabase database, String packageName, int depth, int maxDepth, Map<Class<?>, String> collections,
+			Map<String, Object> referenceFields, Map<Class, Integer> classMaxDepth, List<String> roles,
+			Map<Class, AccessLevelType> collectionClassAcl, Map<String, AccessLevelType> collectionNameAcl,
+			Map<Class<?>, Map<OptionType, IOption>> options) {
+		this.database = database;
+		this.packageName = packageName;
+		this.depth = depth;
+		this.maxDepth = maxDepth;
+		this.collections = collections;
+		this.referenceFields = referenceFields;
+		this.classMaxDepth = classMaxDepth;
+		this.roles = roles;
+		this.collectionClassAcl = collectionClassAcl;
+		this.collectionNameAcl = collectionNameAcl;
+		this.options = options;
+	}
+
 	/**
 	 * Constructs a new Mongo Relay, given the user, has access to user database, and can enforce ACL
 	 * @param copy
@@ -112,12 +202,23 @@ public class MongoRelay {
 		this.database = copy.database;
 		this.depth = copy.depth;
 		this.maxDepth = copy.maxDepth;
+		this.cursorBatchSize = copy.cursorBatchSize;
+		this.referenceExecutor = copy.referenceExecutor;
+		this.referencePermits = copy.referencePermits;
+		this.identityMap = copy.identityMap;
+		this.referenceCache = copy.referenceCache;
+		this.referenceStrategy = copy.referenceStrategy;
+		this.normalizedAcl = copy.normalizedAcl;
+		this.partialUpdates = copy.partialUpdates;
 		this.collectionClassAcl = copy.collectionClassAcl;
 		this.collectionNameAcl = copy.collectionNameAcl;
 		this.classMaxDepth = copy.classMaxDepth;
 		this.collections = copy.collections;
 		this.referenceFields = copy.referenceFields;
 		this.options = copy.options;
+		this.optionsPipelines = copy.optionsPipelines;
+		this.materializedOptions = copy.materializedOptions;
+		this.materializationExecutor = copy.materializationExecutor;
 	}
 
 	public MongoRelay copy () {
@@ -134,6 +235,115 @@ public class MongoRelay {
 		return this;
 	}
 
+	/**
+	 * Enables the batching cursor mode, where cursors map the references of chunks of the given size
+	 * @param cursorBatchSize the number of documents mapped at once
+	 * @return this relay
+	 */
+	public MongoRelay withCursorBatchSize (int cursorBatchSize) {
+		if (cursorBatchSize < 1) {
+			throw new IllegalArgumentException("The cursor batch size must be positive");
+		}
+		this.cursorBatchSize = cursorBatchSize;
+		return this;
+	}
+
+	/**
+	 * Resolves independent references concurrently on a shared executor, virtual threads are used where available
+	 * @param maxConcurrency the maximum number of references resolved at the same time
+	 * @return this relay
+	 */
+	public MongoRelay withParallelReferences (int maxConcurrency) {
+		return this.withParallelReferences(ExecutorUtils.sharedExecutor(), maxConcurrency);
+	}
+
+	/**
+	 * Resolves independent references concurrently on the given executor
+	 * @param executor the executor running the reference queries
+	 * @param maxConcurrency the maximum number of references resolved at the same time, protects the connection pool
+	 * @return this relay
+	 */
+	public MongoRelay withParallelReferences (Executor executor, int maxConcurrency) {
+		if (maxConcurrency < 1) {
+			throw new IllegalArgumentException("The reference concurrency must be positive");
+		}
+		this.referenceExecutor = executor;
+		this.referencePermits = new Semaphore(maxConcurrency);
+		return this;
+	}
+
+	/**
+	 * Starts a unit of work, within which each referenced document is fetched at most once
+	 * @return this relay
+	 */
+	public MongoRelay withIdentityMap () {
+		return this.withIdentityMap(new IdentityMap());
+	}
+
+	/**
+	 * Attaches the given identity map, null disables it
+	 * @param identityMap the identity map of the unit of work
+	 * @return this relay
+	 */
+	public MongoRelay withIdentityMap (IdentityMap identityMap) {
+		this.identityMap = identityMap;
+		return this;
+	}
+
+	/**
+	 * Attaches the given second level cache, null disables it
+	 * @param referenceCache the cache shared by the relays of the process
+	 * @return this relay
+	 */
+	public MongoRelay withCache (ReferenceCache referenceCache) {
+		this.referenceCache = referenceCache;
+		return this;
+	}
+
+	/**
+	 * Selects how the references of aggregation results are resolved
+	 * @param referenceStrategy the strategy
+	 * @return this relay
+	 */
+	public MongoRelay withReferenceStrategy (ReferenceStrategy referenceStrategy) {
+		this.referenceStrategy = referenceStrategy;
+		return this;
+	}
+
+	/**
+	 * @return whether any reference cache is attached to this relay
+	 */
+	public boolean hasReferenceCaches () {
+		return identityMap != null || referenceCache != null;
+	}
+
+	/**
+	 * Evicts a document that has been written from the reference caches
+	 * @param collectionName the collection of the document
+	 * @param id the _id of the document
+	 */
+	protected void evictReference (String collectionName, Object id) {
+		if (identityMap != null) {
+			identityMap.remove(collectionName, id);
+		}
+		if (referenceCache != null) {
+			referenceCache.evict(collectionName, id);
+		}
+	}
+
+	/**
+	 * Evicts all documents of a collection from the reference caches, used when the written documents are not known
+	 * @param collectionName the collection name
+	 */
+	protected void evictReferences (String collectionName) {
+		if (identityMap != null) {
+			identityMap.clear(collectionName);
+		}
+		if (referenceCache != null) {
+			referenceCache.evict(collectionName);
+		}
+	}
+
 	public MongoRelay withCollections(Class<?> clazz, String collection) {
 		this.collections.put(clazz, collection);
 		return this;
@@ -159,6 +369,29 @@ public class MongoRelay {
 		return this;
 	}
 
+	/**
+	 * Stores and filters on the denormalized acl array, see {@link AccessControl#encodeAcl(Collection, Collection)}.
+	 * Existing documents need to be backfilled with {@link #backfillAcl(Class, int)} before enabling it
+	 * @param normalizedAcl whether the acl array is maintained and filtered on
+	 * @return this relay
+	 */
+	public MongoRelay withNormalizedAcl (boolean normalizedAcl) {
+		this.normalizedAcl = normalizedAcl;
+		return this;
+	}
+
+	/**
+	 * Makes the models loaded through this relay remember their document, insertOrUpdate then sends
+	 * the changed fields as $set and $unset instead of replacing the whole document.
+	 * Only plain finds remember the documents, results computed by aggregations or calculated fields do not
+	 * @param partialUpdates whether updates are computed from the loaded documents
+	 * @return this relay
+	 */
+	public MongoRelay withPartialUpdates (boolean partialUpdates) {
+		this.partialUpdates = partialUpdates;
+		return this;
+	}
+
 	public MongoRelay withACL (Class clazz, AccessLevelType type) {
 		collectionClassAcl.put(clazz, type);
 		return this;
@@ -171,6 +404,90 @@ public class MongoRelay {
 
 	public MongoRelay withOptions (Map<Class<?>, Map<OptionType, IOption>> options) {
 		this.options.putAll(options);
+		this.optionsPipelines.clear();
+		if (materializationExecutor != null) {
+			options.keySet()
+					.stream()
+					.filter(materializedOptions::contains)
+					.forEach(clazz -> this.refreshMaterializedOptions(clazz, DEFAULT_MATERIALIZATION_BATCH_SIZE, materializationExecutor)
+							.exceptionally(ex -> {
+								ex.printStackTrace();
+								return 0L;
+							}));
+		}
+		return this;
+	}
+
+	/**
+	 * Stores the calculated fields of the option field container of the given class in its documents, along with the version
+	 * of the options. insertOrUpdate and insertOrUpdateAll compute the fields of the written documents, reads only compute
+	 * the fields of the documents at another version. The other updates and replaces of the relay collection clear the version
+	 * of the documents they write, which are then computed on read until refreshed. Writes bypassing the relay are not tracked
+	 * @param clazz the class of the options
+	 * @return this relay
+	 */
+	public MongoRelay withMaterializedOptions (Class<?> clazz) {
+		this.materializedOptions.add(clazz);
+		this.optionsPipelines.remove(clazz);
+		return this;
+	}
+
+	/**
+	 * Refreshes the materialized calculated fields on the given executor whenever {@link #withOptions(Map)} changes their options
+	 * @param executor the executor of the refresh, null to refresh manually
+	 * @return this relay
+	 */
+	public MongoRelay withMaterializationExecutor (Executor executor) {
+		this.materializationExecutor = executor;
+		return this;
+	}
+
+	public boolean isMaterialized (Class<?> clazz) {
+		return materializedOptions.contains(clazz);
+	}
+
+	/**
+	 * Computes the materialized calculated fields of the documents of the given class not at the current version of its options
+	 * @param clazz the class of the options
+	 * @param batchSize the number of documents read and written at once
+	 * @return the number of updated documents
+	 */
+	public long refreshMaterializedOptions (Class<?> clazz, int batchSize) {
+		IOption options = this.options.getOrDefault(clazz, Map.of()).get(OptionType.CALCULATED);
+		if (!(options instanceof FieldConfig) || !this.isMaterialized(clazz)) {
+			return 0;
+		}
+		String collectionName = collections.getOrDefault(clazz, ClassUtils.entityName(clazz));
+		MongoCollection<Document> collection = this.mongoDatabaseOn(collectionName).getCollection(collectionName);
+		return OptionsMaterializer.refresh(collection, this.getOptionsPipeline(clazz, (FieldConfig) options), batchSize);
+	}
+
+	public CompletableFuture<Long> refreshMaterializedOptions (Class<?> clazz, int batchSize, Executor executor) {
+		return CompletableFuture.supplyAsync(() -> this.refreshMaterializedOptions(clazz, batchSize), executor);
+	}
+
+	/**
+	 * The calculation options of a class compiled into stages, compiled again only when the options of the class are replaced
+	 * @param clazz the class of the options
+	 * @param options the current calculation options of the class
+	 * @return the compiled options
+	 */
+	public OptionsPipeline getOptionsPipeline (Class<?> clazz, FieldConfig options) {
+		OptionsPipeline pipeline = optionsPipelines.get(clazz);
+		boolean materialized = this.isMaterialized(clazz);
+		if (pipeline == null || !pipeline.isCompiledFrom(options, materialized)) {
+			pipeline = OptionsPipeline.compile(options, clazz, materialized);
+			optionsPipelines.put(clazz, pipeline);
+		}
+		return pipeline;
+	}
+
+	/**
+	 * Drops the compiled calculation options, to be called after changing the options in place
+	 * @return this relay
+	 */
+	public MongoRelay clearOptionsPipelines () {
+		this.optionsPipelines.clear();
 		return this;
 	}
 
@@ -216,16 +533,53 @@ public class MongoRelay {
 		if (accessControl == null) {
 			return collection.find(key).first();
 		}
-		// I can only check access for Mongo Collection Model
-		if (RelayModel.class.isAssignableFrom(clazz)) {
-			return (T) accessControl.isAccessibleOnCollection((RelayCollection<RelayModel>) collection, filter, key);
+		// I can only check access for Mongo Collection Model or Document model
+		if (!RelayModel.class.isAssignableFrom(clazz) && !Document.class.isAssignableFrom(clazz)) {
+			return null;
 		}
-		// or Document model
-		if (Document.class.isAssignableFrom(clazz)) {
-			return (T) accessControl.isAccessible((RelayCollection<Document>) collection, filter, key);
+		// the access is part of the query, only a miss needs telling a forbidden document from a missing one
+		List<Bson> findFilters = new ArrayList<>();
+		findFilters.add(key);
+		findFilters.add(accessControl.accessPredicate());
+		if (filter != null) {
+			findFilters.add(filter);
 		}
+		T found = collection.find().withoutAccess().filter(Filters.and(findFilters)).first();
+		if (found != null || !accessControl.checkAccess(collection, filter, key)) {
+			return found;
+		}
+		// the access lists allow the document the predicate missed, such as one whose normalized acl is stale
+		findFilters.remove(1);
+		return collection.find().withoutAccess().filter(Filters.and(findFilters)).first();
+	}
 
-		return null;
+	/**
+	 * Checks the access on the document matched by the key and the filter, reading only its _id and access lists
+	 * @param key the key of the document
+	 * @param collection the collection of the document
+	 * @param filter the additional filter, may be null
+	 * @return whether a document matched
+	 * @throws RelayException forbidden when the document matched but is not accessible
+	 */
+	protected <T> boolean checkAccess (Bson key, RelayCollection<T> collection, Bson filter) throws RelayException {
+		AccessControl accessControl = this.accessControl(collection.getDocumentClass(), collection.getDatabase().getCollectionName());
+		if (accessControl == null) {
+			return AccessControl.findAccessLists(collection, filter, key) != null;
+		}
+		return accessControl.checkAccess(collection, filter, key);
+	}
+
+	/**
+	 * The access predicate to fold into the filter of a single document write, null when no access control applies
+	 * @param collection the written collection
+	 * @return the predicate
+	 */
+	protected <T> Bson accessPredicate (RelayCollection<T> collection) {
+		AccessControl accessControl = this.accessControl(collection.getDocumentClass(), collection.getDatabase().getCollectionName());
+		if (accessControl == null) {
+			return null;
+		}
+		return accessControl.accessPredicate();
 	}
 
 	/**
@@ -302,7 +656,7 @@ public class MongoRelay {
 	 * @return
 	 */
 	public  <A extends Collection<? super TResult>, TResult, TDocument> A map(A item, Class<TDocument> clazz) {
-		return this.map(item, this.discover(clazz), clazz);
+		return this.map(item, ReferenceRegistry.discover(clazz), clazz);
 	}
 
 	/**
@@ -311,7 +665,39 @@ public class MongoRelay {
 	 * @return
 	 */
 	public <TResult, TDocument> TResult map(TResult item, Class<TDocument> clazz) {
-		return this.map(Arrays.asList(item), this.discover(clazz), clazz).get(0);
+		return this.map(Arrays.asList(item), ReferenceRegistry.discover(clazz), clazz).get(0);
+	}
+
+	/**
+	 * Maps the references of the given items, except the ones already resolved by the query itself.
+	 * Only the nested references of the documents the query resolved are mapped
+	 * @param item the items
+	 * @param clazz the class of the items
+	 * @param resolved the references resolved by the query
+	 * @return the items
+	 */
+	public <A extends Collection<? super TResult>, TResult, TDocument> A map(A item, Class<TDocument> clazz, Collection<IReference> resolved) {
+		if (resolved.isEmpty()) {
+			return this.map(item, clazz);
+		}
+		List<IReference> references = ReferenceRegistry.discover(clazz)
+			.stream()
+			.filter(next -> !resolved.contains(next))
+			.collect(Collectors.toList());
+		this.map(item, references, clazz);
+		return this.mapResolved(item, resolved, clazz);
+	}
+
+	public <TResult, TDocument> TResult map(TResult item, Class<TDocument> clazz, Collection<IReference> resolved) {
+		return this.map(Arrays.asList(item), clazz, resolved).get(0);
+	}
+
+	/**
+	 * @param clazz the class of the mapped items
+	 * @return whether this relay maps the references of the given class, given its depth
+	 */
+	public boolean mapsReferences (Class<?> clazz) {
+		return depth < maxDepth && depth < classMaxDepth.getOrDefault(clazz, maxDepth);
 	}
 
 	protected <T> AccessControl accessControl (Class<T> clazz, String collectionName) {
@@ -322,7 +708,17 @@ public class MongoRelay {
 		if (roles.size() == 0) {
 			return null;
 		}
-		return new AccessControl(roles, type);
+		return new AccessControl(roles, type, normalizedAcl);
+	}
+
+	/**
+	 * @param clazz the class of the documents
+	 * @param collectionName the collection of the documents
+	 * @return whether the documents are subject to access control, regardless of the roles of this relay
+	 */
+	public <T> boolean isAccessControlled (Class<T> clazz, String collectionName) {
+		AccessLevelType type = this.aclTypeOn(clazz, collectionName);
+		return type != null && type != AccessLevelType.NONE;
 	}
 
 	protected <T> AccessLevelType aclTypeOn (Class<T> clazz, String collectionName) {
@@ -359,11 +755,8 @@ public class MongoRelay {
 	 * @return mapped collection
 	 */
 	private <A extends Collection<? super TResult>, TResult, TDocument> A map(A item, List<IReference> references, Class<TDocument> clazz) {
-		if (depth >= maxDepth) {
-			return item;
-		}
-		// now also check if class depth exceeds max depth
-		if (depth >= classMaxDepth.getOrDefault(clazz, maxDepth)) {
+		// check both the max depth and the class max depth
+		if (!this.mapsReferences(clazz)) {
 			return item;
 		}
 
@@ -377,46 +770,90 @@ public class MongoRelay {
 
 		// Now that we have the reference mapping, lets form the filter which will get the references from Mongo and assign the values back to the target
 		// That's apply the referencing
-		for (IReference reference: references) {
-			reference.map(item, relay);
+		if (referenceExecutor == null || references.size() < 2) {
+			for (IReference reference: references) {
+				reference.map(item, relay);
+			}
+			return item;
 		}
+		return this.mapConcurrently(item, references, relay);
+	}
 
+	/**
+	 * Maps the nested references of the documents resolved by the query, the same way the client side mapper
+	 * would have when fetching them one level deeper
+	 */
+	private <A extends Collection<? super TResult>, TResult, TDocument> A mapResolved(A item, Collection<IReference> resolved, Class<TDocument> clazz) {
+		if (!this.mapsReferences(clazz)) {
+			return item;
+		}
+		MongoRelay relay = this.copy();
+		relay.depth += 1;
+		for (IReference reference: resolved) {
+			Class<?> target = ClassUtils.getTargetClass(reference.getField());
+			List<Object> values = new ArrayList<>();
+			for (Object source: item) {
+				if (!reference.getField().getDeclaringClass().isAssignableFrom(source.getClass())) {
+					continue;
+				}
+				Object value = FieldAccessor.of(reference.getField()).get(source);
+				if (value instanceof Collection) {
+					values.addAll((Collection<?>) value);
+				} else if (value != null) {
+					values.add(value);
+				}
+			}
+			if (!values.isEmpty()) {
+				relay.map(values, target);
+			}
+		}
 		return item;
 	}
 
-	private <T> List<IReference> discover (Class<T> clazz) {
-		List<Field> referencedFields = FieldUtils.getFieldsListWithAnnotation(clazz, Reference.class);
-		List<IReference> references = referencedFields
+	/**
+	 * Resolves the references concurrently, references writing to the same field are resolved one after the other
+	 * such that each item field is only written by one task
+	 * @param item
+	 * @param references
+	 * @param relay
+	 * @return mapped collection
+	 */
+	private <A extends Collection<? super TResult>, TResult> A mapConcurrently(A item, List<IReference> references, MongoRelay relay) {
+		Map<String, List<IReference>> groups = references
 				.stream()
-				.map(next -> discover(next, clazz))
-				.filter(IReference::isValid)
-				.collect(Collectors.toList());
-
-		SubClasses subClasses = clazz.getDeclaredAnnotation(SubClasses.class);
-		if (subClasses != null) {
-			List<IReference> subs = Arrays.stream(subClasses.of())
-					.map(this::discover)
-					.flatMap(Collection::stream)
-					.collect(Collectors.toList());
-			references.addAll(subs);
+				.collect(Collectors.groupingBy(next -> next.getField().getName(), LinkedHashMap::new, Collectors.toList()));
+
+		List<CompletableFuture<Void>> tasks = new ArrayList<>();
+		for (List<IReference> group: groups.values()) {
+			Runnable task = () -> group.forEach(reference -> reference.map(item, relay));
+			// when the cap is reached, the caller resolves the group itself, nested mappings can never wait on their parents
+			if (!referencePermits.tryAcquire()) {
+				task.run();
+				continue;
+			}
+			try {
+				tasks.add(CompletableFuture.runAsync(() -> {
+					try {
+						task.run();
+					} finally {
+						referencePermits.release();
+					}
+				}, referenceExecutor));
+			} catch (RejectedExecutionException e) {
+				referencePermits.release();
+				task.run();
+			}
 		}
-		return references;
-	}
 
-	private <T> IReference discover (Field next, Class<T> clazz) {
-		Reference annotation = next.getAnnotation(Reference.class);
-		if (!annotation.nested()) {
-			ReferencedField referencedField = new ReferencedField(clazz, next, annotation.projections(), new ArrayList<>(), annotation.collection());
-			String[] from = annotation.from();
-			String[] to = annotation.to();
-			for (int i = 0; i < from.length; i++) {
-				String source = from[i];
-				String target = to[i];
-				referencedField.addReference(new FieldReference(source, target));
+		try {
+			CompletableFuture.allOf(tasks.toArray(new CompletableFuture<?>[0])).join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
 			}
-			return referencedField;
+			throw e;
 		}
-		return new InnerReferenceField(clazz, next, annotation.subclasses());
+		return item;
 	}
 
 	/**
@@ -473,6 +910,9 @@ public class MongoRelay {
 	public void ensureIndexes(Class<? extends RelayModel> clazz, String collectionName) {
 		List<Field> indexedFields = FieldUtils.getFieldsListWithAnnotation(clazz, Index.class);
 		indexedFields.forEach(field -> this.ensureIndexes(field, collectionName));
+		if (normalizedAcl) {
+			this.ensureAclIndex(collectionName);
+		}
 
 		RelayCollection<Document> collection = this.on(collectionName).getCollection();
 		List<Document> existing = collection.listSearchIndexes().into(new ArrayList<>());
@@ -520,6 +960,43 @@ public class MongoRelay {
 		}
 	}
 
+	/**
+	 * Ensures the multikey index on the denormalized acl array, serving the access filter
+	 *
+	 * @param collectionName the name of the collection
+	 */
+	private void ensureAclIndex(String collectionName) {
+		RelayCollection<Document> collection = this.on(collectionName).getCollection();
+		try {
+			collection.createIndex(Indexes.ascending(AccessControl.ACL), new IndexOptions().background(true));
+		} catch (Exception exception) {
+			System.err.println("Error creating index for field " + AccessControl.ACL + " in collection " + collectionName + ": " + exception.getMessage());
+		}
+	}
+
+	/**
+	 * Writes the denormalized acl array on the existing documents of the given class, in batches
+	 *
+	 * @param clazz the class to process
+	 * @param batchSize the number of documents read and written at once
+	 * @return the number of updated documents
+	 */
+	public long backfillAcl(Class<? extends RelayModel> clazz, int batchSize) {
+		String collectionName = collections.getOrDefault(clazz, ClassUtils.entityName(clazz));
+		return this.backfillAcl(collectionName, batchSize);
+	}
+
+	/**
+	 * Writes the denormalized acl array on the existing documents of the given collection, in batches
+	 *
+	 * @param collectionName the name of the collection
+	 * @param batchSize the number of documents read and written at once
+	 * @return the number of updated documents
+	 */
+	public long backfillAcl(String collectionName, int batchSize) {
+		return AclMigration.backfill(this.mongoDatabaseOn(collectionName).getCollection(collectionName), batchSize);
+	}
+
 	/**
 	 * Ensure atlas vector search in particular
 	 * @param clazz
@@ -0,0 +1,69 @@
+package io.purchaise.mongolay;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.*;
+import io.purchaise.mongolay.options.OptionsPipeline;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Stores the calculated fields of the documents, along with the version of the options they were computed with.
+ * Documents are refreshed in _id order, such that an interrupted refresh can simply be run again
+ */
+public class OptionsMaterializer {
+	private static final String VERSION = io.purchaise.mongolay.options.Constants.MATERIALIZED_VERSION;
+
+	private OptionsMaterializer() {}
+
+	/**
+	 * Computes and stores the calculated fields of the given documents
+	 * @param collection the collection of the documents
+	 * @param pipeline the materialized options of the collection
+	 * @param ids the ids of the documents
+	 * @return the number of updated documents
+	 */
+	public static long materialize(MongoCollection<?> collection, OptionsPipeline pipeline, Collection<?> ids) {
+		if (ids.isEmpty()) {
+			return 0;
+		}
+		return collection.updateMany(Filters.in(Constants.ID_KEY, ids), pipeline.getMaterializeUpdate()).getModifiedCount();
+	}
+
+	/**
+	 * Computes and stores the calculated fields of the documents not at the current version of the options
+	 * @param collection the collection to refresh
+	 * @param pipeline the materialized options of the collection
+	 * @param batchSize the number of documents read and written at once
+	 * @return the number of updated documents
+	 */
+	public static long refresh(MongoCollection<Document> collection, OptionsPipeline pipeline, int batchSize) {
+		if (batchSize < 1) {
+			throw new IllegalArgumentException("The batch size must be positive");
+		}
+		Bson stale = Filters.ne(VERSION, pipeline.getVersion());
+		long updated = 0;
+		Object last = null;
+		while (true) {
+			Bson filter = last == null ? stale : Filters.and(stale, Filters.gt(Constants.ID_KEY, last));
+			List<Object> batch = collection.find(filter)
+					.projection(Projections.include(Constants.ID_KEY))
+					.sort(Sorts.ascending(Constants.ID_KEY))
+					.limit(batchSize)
+					.map(document -> document.get(Constants.ID_KEY))
+					.into(new ArrayList<>());
+			if (batch.isEmpty()) {
+				return updated;
+			}
+			// documents written since being read are already at the current version
+			updated += collection.updateMany(
+					Filters.and(stale, Filters.in(Constants.ID_KEY, batch)),
+					pipeline.getMaterializeUpdate()
+			).getModifiedCount();
+			last = batch.get(batch.size() - 1);
+		}
+	}
+}
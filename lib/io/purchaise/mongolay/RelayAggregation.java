@@ -4,11 +4,13 @@ import com.mongodb.ExplainVerbosity;
 import com.mongodb.client.AggregateIterable;
 import com.mongodb.client.cursor.TimeoutMode;
 import com.mongodb.client.model.Collation;
+import io.purchaise.mongolay.references.IReference;
 import lombok.Getter;
 import org.bson.BsonValue;
 import org.bson.Document;
 import org.bson.conversions.Bson;
 
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -26,6 +28,12 @@ public class RelayAggregation<TDocument, TResult> extends RelayMongoIterable<TDo
 		this.aggregateIterable = aggregateIterable;
 	}
 
+	public RelayAggregation(RelayCollection<TDocument> collection, AggregateIterable<TResult> aggregateIterable, Class<TResult> clazz, List<IReference> resolvedReferences) {
+		super(collection, aggregateIterable, clazz, resolvedReferences);
+		this.relayCollection = collection;
+		this.aggregateIterable = aggregateIterable;
+	}
+
 	@Override
 	public void toCollection() {
 		aggregateIterable.toCollection();
@@ -0,0 +1,109 @@
+package io.purchaise.mongolay;
+
+import com.mongodb.ServerAddress;
+import com.mongodb.ServerCursor;
+import com.mongodb.client.MongoCursor;
+import lombok.Getter;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * A cursor that reads the documents in chunks and maps the references of a whole chunk at once,
+ * such that iterating N documents issues one reference query per chunk instead of one per document.
+ * At most one chunk is held in memory at any time.
+ */
+public class RelayBatchCursor<TDocument, TResult> implements MongoCursor<TResult> {
+	@Getter
+	private final RelayMongoIterable<TDocument, TResult> relayMongoIterable;
+	@Getter
+	private final MongoCursor<TResult> cursor;
+	@Getter
+	private final int batchSize;
+
+	private final Deque<TResult> buffer;
+
+	public RelayBatchCursor(RelayMongoIterable<TDocument, TResult> relayMongoIterable, MongoCursor<TResult> cursor, int batchSize) {
+		if (batchSize < 1) {
+			throw new IllegalArgumentException("The batch size must be positive");
+		}
+		this.relayMongoIterable = relayMongoIterable;
+		this.cursor = cursor;
+		this.batchSize = batchSize;
+		this.buffer = new ArrayDeque<>(batchSize);
+	}
+
+	@Override
+	public void close() {
+		buffer.clear();
+		cursor.close();
+	}
+
+	@Override
+	public boolean hasNext() {
+		return !buffer.isEmpty() || cursor.hasNext();
+	}
+
+	@Override
+	public TResult next() {
+		if (buffer.isEmpty()) {
+			this.fill();
+		}
+		if (buffer.isEmpty()) {
+			throw new NoSuchElementException();
+		}
+		return buffer.poll();
+	}
+
+	@Override
+	public int available() {
+		return buffer.size() + cursor.available();
+	}
+
+	@Override
+	public TResult tryNext() {
+		if (buffer.isEmpty()) {
+			TResult result = cursor.tryNext();
+			if (result == null) {
+				return null;
+			}
+			List<TResult> chunk = new ArrayList<>(batchSize);
+			chunk.add(result);
+			// only take what is already available locally, tryNext should not block
+			while (chunk.size() < batchSize && cursor.available() > 0) {
+				chunk.add(cursor.next());
+			}
+			this.map(chunk);
+		}
+		return buffer.poll();
+	}
+
+	@Override
+	public ServerCursor getServerCursor() {
+		return cursor.getServerCursor();
+	}
+
+	@Override
+	public ServerAddress getServerAddress() {
+		return cursor.getServerAddress();
+	}
+
+	private void fill() {
+		List<TResult> chunk = new ArrayList<>(batchSize);
+		while (chunk.size() < batchSize && cursor.hasNext()) {
+			chunk.add(cursor.next());
+		}
+		this.map(chunk);
+	}
+
+	private void map(List<TResult> chunk) {
+		if (chunk.isEmpty()) {
+			return;
+		}
+		relayMongoIterable.mapReferences(chunk);
+		buffer.addAll(chunk);
+	}
+}
@@ -1,6 +1,7 @@
 package io.purchaise.mongolay;
 
 import com.mongodb.*;
+import com.mongodb.bulk.BulkWriteError;
 import com.mongodb.bulk.BulkWriteResult;
 import com.mongodb.client.*;
 import com.mongodb.client.model.*;
@@ -10,25 +11,46 @@ import com.mongodb.client.result.InsertOneResult;
 import com.mongodb.client.result.UpdateResult;
 import com.mongodb.client.ClientSession;
 import io.purchaise.mongolay.options.OptionsUtils;
+import io.purchaise.mongolay.references.*;
+import io.purchaise.mongolay.utils.BsonDiff;
+import io.purchaise.mongolay.utils.ClassUtils;
+import io.purchaise.mongolay.utils.HibernateValidator;
+import io.purchaise.mongolay.utils.TextUtils;
+import io.purchaise.mongolay.utils.VersionField;
 import lombok.AllArgsConstructor;
 import lombok.Getter;
-import org.bson.Document;
+import org.bson.*;
+import org.bson.codecs.Codec;
+import org.bson.codecs.EncoderContext;
+import org.bson.codecs.configuration.CodecConfigurationException;
 import org.bson.codecs.configuration.CodecRegistry;
 import org.bson.conversions.Bson;
 import org.bson.types.ObjectId;
 
-import java.util.Date;
-import java.util.List;
+import java.util.*;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
 import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.stream.Collectors;
 
 /**
  * Created by agonlohaj on 08 Aug, 2019
  */
 @AllArgsConstructor
 public class RelayCollection<TDocument> implements MongoCollection<TDocument> {
+	/**
+	 * Number of items written at once by the bulk operations
+	 */
+	public static final int DEFAULT_CHUNK_SIZE = 1000;
+
+	/**
+	 * The description of a single document write that missed a document which is there and accessible
+	 */
+	public static final String WRITE_CONFLICT = "write_conflict";
+	private static final String MATERIALIZED_VERSION = io.purchaise.mongolay.options.Constants.MATERIALIZED_VERSION;
+
 	@Getter
 	private RelayDatabase database;
 	@Getter
@@ -162,6 +184,46 @@ public class RelayCollection<TDocument> implements MongoCollection<TDocument> {
 		return filters;
 	}
 
+	/**
+	 * Evicts a written document from the reference caches of the relay
+	 * @param id the _id of the document
+	 */
+	protected void evict(ObjectId id) {
+		getMongoRelay().evictReference(getDatabase().getCollectionName(), id);
+	}
+
+	/**
+	 * Evicts the documents matched by a write filter from the reference caches of the relay.
+	 * Filters on a single _id evict that document, any other filter evicts the whole collection.
+	 * @param filter the filter of the write
+	 */
+	protected void evict(Bson filter) {
+		if (!getMongoRelay().hasReferenceCaches()) {
+			return;
+		}
+		BsonValue id = null;
+		try {
+			BsonDocument document = filter.toBsonDocument(BsonDocument.class, getCodecRegistry());
+			if (document.size() == 1) {
+				id = document.get(Constants.ID_KEY);
+			}
+		} catch (CodecConfigurationException ignore) {
+			// the filter can not be rendered, evict everything
+		}
+		if (id != null && id.isObjectId()) {
+			this.evict(id.asObjectId().getValue());
+			return;
+		}
+		this.evictAll();
+	}
+
+	/**
+	 * Evicts all documents of this collection from the reference caches of the relay
+	 */
+	protected void evictAll() {
+		getMongoRelay().evictReferences(getDatabase().getCollectionName());
+	}
+
 	public long count() {
 		return this.countDocuments();
 	}
@@ -348,50 +410,72 @@ public class RelayCollection<TDocument> implements MongoCollection<TDocument> {
 
 	@Override
 	public RelayAggregation<TDocument, TDocument> aggregate(List<? extends Bson> pipeline) {
-		return new RelayAggregation<>(
-				this,
-				collection.aggregate(OptionsUtils.mergeCalculationOptions(this.getDatabase(), pipeline)),
-				getDocumentClass()
-		);
+		return this.aggregate(pipeline, getDocumentClass());
 	}
 
 	@Override
 	public <TResult> RelayAggregation<TDocument, TResult> aggregate(List<? extends Bson> pipeline, Class<TResult> tResultClass) {
+		return this.aggregate(pipeline, tResultClass, getMongoRelay().getReferenceStrategy());
+	}
+
+	/**
+	 * Aggregates with the given reference strategy, instead of the one of the relay
+	 * @param pipeline the aggregation pipeline
+	 * @param tResultClass the class to decode each document into
+	 * @param strategy how the references of the results are resolved
+	 * @param <TResult> the target document type of the iterable
+	 * @return the relay aggregation
+	 */
+	public <TResult> RelayAggregation<TDocument, TResult> aggregate(List<? extends Bson> pipeline, Class<TResult> tResultClass, ReferenceStrategy strategy) {
+		ReferenceLookup lookup = ReferenceLookup.of(this.getDatabase(), tResultClass, strategy);
 		return new RelayAggregation<>(
 				this,
 				collection.aggregate(
-						OptionsUtils.mergeCalculationOptions(this.getDatabase(), pipeline),
+						OptionsUtils.mergeCalculationOptions(this.getDatabase(), this.withLookup(pipeline, lookup)),
 						tResultClass
 				),
-				tResultClass
+				tResultClass,
+				lookup.getReferences()
 		);
 	}
 
 	@Override
 	public RelayAggregation<TDocument, TDocument> aggregate(ClientSession clientSession, List<? extends Bson> pipeline) {
-		return new RelayAggregation<>(
-				this,
-				collection.aggregate(
-						clientSession,
-						OptionsUtils.mergeCalculationOptions(this.getDatabase(), pipeline)
-				),
-				getDocumentClass()
-		);
+		return this.aggregate(clientSession, pipeline, getDocumentClass());
 	}
 
 	@Override
 	public <TResult> RelayAggregation<TDocument, TResult> aggregate(ClientSession clientSession, List<? extends Bson> pipeline, Class<TResult> tResultClass) {
+		return this.aggregate(clientSession, pipeline, tResultClass, getMongoRelay().getReferenceStrategy());
+	}
+
+	public <TResult> RelayAggregation<TDocument, TResult> aggregate(ClientSession clientSession, List<? extends Bson> pipeline, Class<TResult> tResultClass, ReferenceStrategy strategy) {
+		ReferenceLookup lookup = ReferenceLookup.of(this.getDatabase(), tResultClass, strategy);
 		return new RelayAggregation<>(
 				this,
 				collection.aggregate(
 						clientSession,
-						OptionsUtils.mergeCalculationOptions(this.getDatabase(), pipeline),
+						OptionsUtils.mergeCalculationOptions(this.getDatabase(), this.withLookup(pipeline, lookup)),
 						tResultClass
 				),
-				tResultClass
+				tResultClass,
+				lookup.getReferences()
 		);
 	}
 
+	/**
+	 * Appends the reference lookup stages to the pipeline, ahead of the calculation options being merged
+	 * such that the looked up collections get their options too
+	 */
+	private List<? extends Bson> withLookup(List<? extends Bson> pipeline, ReferenceLookup lookup) {
+		if (lookup.getStages().isEmpty()) {
+			return pipeline;
+		}
+		List<Bson> stages = new ArrayList<>(pipeline);
+		stages.addAll(lookup.getStages());
+		return stages;
+	}
+
 	@Override
 	public ChangeStreamIterable<TDocument> watch() {
 		return collection.watch();
@@ -454,22 +538,30 @@ public class RelayCollection<TDocument> implements MongoCollection<TDocument> {
 
 	@Override
 	public BulkWriteResult bulkWrite(List<? extends WriteModel<? extends TDocument>> requests) {
-		return collection.bulkWrite(requests);
+		BulkWriteResult result = collection.bulkWrite(this.withoutMaterializedVersions(requests));
+		this.evictAll();
+		return result;
 	}
 
 	@Override
 	public BulkWriteResult bulkWrite(List<? extends WriteModel<? extends TDocument>> requests, BulkWriteOptions options) {
-		return collection.bulkWrite(requests, options);
+		BulkWriteResult result = collection.bulkWrite(this.withoutMaterializedVersions(requests), options);
+		this.evictAll();
+		return result;
 	}
 
 	@Override
 	public BulkWriteResult bulkWrite(ClientSession clientSession, List<? extends WriteModel<? extends TDocument>> requests) {
-		return collection.bulkWrite(clientSession, requests);
+		BulkWriteResult result = collection.bulkWrite(clientSession, this.withoutMaterializedVersions(requests));
+		this.evictAll();
+		return result;
 	}
 
 	@Override
 	public BulkWriteResult bulkWrite(ClientSession clientSession, List<? extends WriteModel<? extends TDocument>> requests, BulkWriteOptions options) {
-		return collection.bulkWrite(clientSession, requests, options);
+		BulkWriteResult result = collection.bulkWrite(clientSession, this.withoutMaterializedVersions(requests), options);
+		this.evictAll();
+		return result;
 	}
 
 	@Override
@@ -514,242 +606,334 @@ public class RelayCollection<TDocument> implements MongoCollection<TDocument> {
 
 	@Override
 	public DeleteResult deleteOne(Bson filter) {
-		return collection.deleteOne(filter);
+		DeleteResult result = collection.deleteOne(filter);
+		this.evict(filter);
+		return result;
 	}
 
 	@Override
 	public DeleteResult deleteOne(Bson filter, DeleteOptions options) {
-		return collection.deleteOne(filter, options);
+		DeleteResult result = collection.deleteOne(filter, options);
+		this.evict(filter);
+		return result;
 	}
 
 	@Override
 	public DeleteResult deleteOne(ClientSession clientSession, Bson filter) {
-		return collection.deleteOne(clientSession, filter);
+		DeleteResult result = collection.deleteOne(clientSession, filter);
+		this.evict(filter);
+		return result;
 	}
 
 	@Override
 	public DeleteResult deleteOne(ClientSession clientSession, Bson filter, DeleteOptions options) {
-		return collection.deleteOne(clientSession, filter, options);
+		DeleteResult result = collection.deleteOne(clientSession, filter, options);
+		this.evict(filter);
+		return result;
 	}
 
 	@Override
 	public DeleteResult deleteMany(Bson filter) {
-		return collection.deleteMany(filter);
+		DeleteResult result = collection.deleteMany(filter);
+		this.evict(filter);
+		return result;
 	}
 
 	@Override
 	public DeleteResult deleteMany(Bson filter, DeleteOptions options) {
-		return collection.deleteMany(filter, options);
+		DeleteResult result = collection.deleteMany(filter, options);
+		this.evict(filter);
+		return result;
 	}
 
 	@Override
 	public DeleteResult deleteMany(ClientSession clientSession, Bson filter) {
-		return collection.deleteMany(clientSession, filter);
+		DeleteResult result = collection.deleteMany(clientSession, filter);
+		this.evict(filter);
+		return result;
 	}
 
 	@Override
 	public DeleteResult deleteMany(ClientSession clientSession, Bson filter, DeleteOptions options) {
-		return collection.deleteMany(clientSession, filter, options);
+		DeleteResult result = collection.deleteMany(clientSession, filter, options);
+		this.evict(filter);
+		return result;
 	}
 
 	@Override
 	public UpdateResult replaceOne(Bson filter, TDocument replacement) {
-		return collection.replaceOne(filter, replacement);
+		UpdateResult result = collection.replaceOne(filter, this.withoutMaterializedVersion(replacement));
+		this.evict(filter);
+		return result;
 	}
 
 	@Override
 	public UpdateResult replaceOne(Bson filter, TDocument replacement, ReplaceOptions updateOptions) {
-		return collection.replaceOne(filter, replacement, updateOptions);
+		UpdateResult result = collection.replaceOne(filter, this.withoutMaterializedVersion(replacement), updateOptions);
+		this.evict(filter);
+		return result;
 	}
 
 	@Override
 	public UpdateResult replaceOne(ClientSession clientSession, Bson filter, TDocument replacement) {
-		return collection.replaceOne(clientSession, filter, replacement);
+		UpdateResult result = collection.replaceOne(clientSession, filter, this.withoutMaterializedVersion(replacement));
+		this.evict(filter);
+		return result;
 	}
 
 	@Override
 	public UpdateResult replaceOne(ClientSession clientSession, Bson filter, TDocument replacement, ReplaceOptions updateOptions) {
-		return collection.replaceOne(clientSession, filter, replacement, updateOptions);
+		UpdateResult result = collection.replaceOne(clientSession, filter, this.withoutMaterializedVersion(replacement), updateOptions);
+		this.evict(filter);
+		return result;
 	}
 
 	@Override
 	public UpdateResult updateOne(Bson filter, Bson update) {
-		return collection.updateOne(filter, update);
+		UpdateResult result = collection.updateOne(filter, this.withoutMaterializedVersion(update));
+		this.evict(filter);
+		return result;
 	}
 
 	@Override
 	public UpdateResult updateOne(Bson filter, Bson update, UpdateOptions updateOptions) {
-		return collection.updateOne(filter, update, updateOptions);
+		UpdateResult result = collection.updateOne(filter, this.withoutMaterializedVersion(update), updateOptions);
+		this.evict(filter);
+		return result;
 	}
 
 	@Override
 	public UpdateResult updateOne(ClientSession clientSession, Bson filter, Bson update) {
-		return collection.updateOne(clientSession, filter, update);
+		UpdateResult result = collection.updateOne(clientSession, filter, this.withoutMaterializedVersion(update));
+		this.evict(filter);
+		return result;
 	}
 
 	@Override
 	public UpdateResult updateOne(ClientSession clientSession, Bson filter, Bson update, UpdateOptions updateOptions) {
-		return collection.updateOne(clientSession, filter, update, updateOptions);
+		UpdateResult result = collection.updateOne(clientSession, filter, this.withoutMaterializedVersion(update), updateOptions);
+		this.evict(filter);
+		return result;
 	}
 
 	@Override
 	public UpdateResult updateOne(Bson bson, List<? extends Bson> list) {
-		return collection.updateOne(bson, list);
+		UpdateResult result = collection.updateOne(bson, this.withoutMaterializedVersion(list));
+		this.evict(bson);
+		return result;
 	}
 
 	@Override
 	public UpdateResult updateOne(Bson bson, List<? extends Bson> list, UpdateOptions updateOptions) {
-		return collection.updateOne(bson, list, updateOptions);
+		UpdateResult result = collection.updateOne(bson, this.withoutMaterializedVersion(list), updateOptions);
+		this.evict(bson);
+		return result;
 	}
 
 	@Override
 	public UpdateResult updateOne(ClientSession clientSession, Bson bson, List<? extends Bson> list) {
-		return collection.updateOne(clientSession, bson, list);
+		UpdateResult result = collection.updateOne(clientSession, bson, this.withoutMaterializedVersion(list));
+		this.evict(bson);
+		return result;
 	}
 
 	@Override
 	public UpdateResult updateOne(ClientSession clientSession, Bson bson, List<? extends Bson> list, UpdateOptions updateOptions) {
-		return collection.updateOne(clientSession, bson, list, updateOptions);
+		UpdateResult result = collection.updateOne(clientSession, bson, this.withoutMaterializedVersion(list), updateOptions);
+		this.evict(bson);
+		return result;
 	}
 
 	@Override
 	public UpdateResult updateMany(Bson filter, Bson update) {
-		return collection.updateMany(filter, update);
+		UpdateResult result = collection.updateMany(filter, this.withoutMaterializedVersion(update));
+		this.evict(filter);
+		return result;
 	}
 
 	@Override
 	public UpdateResult updateMany(Bson filter, Bson update, UpdateOptions updateOptions) {
-		return collection.updateMany(filter, update, updateOptions);
+		UpdateResult result = collection.updateMany(filter, this.withoutMaterializedVersion(update), updateOptions);
+		this.evict(filter);
+		return result;
 	}
 
 	@Override
 	public UpdateResult updateMany(ClientSession clientSession, Bson filter, Bson update) {
-		return collection.updateMany(clientSession, filter, update);
+		UpdateResult result = collection.updateMany(clientSession, filter, this.withoutMaterializedVersion(update));
+		this.evict(filter);
+		return result;
 	}
 
 	@Override
 	public UpdateResult updateMany(ClientSession clientSession, Bson filter, Bson update, UpdateOptions updateOptions) {
-		return collection.updateMany(clientSession, filter, update, updateOptions);
+		UpdateResult result = collection.updateMany(clientSession, filter, this.withoutMaterializedVersion(update), updateOptions);
+		this.evict(filter);
+		return result;
 	}
 
 	@Override
 	public UpdateResult updateMany(Bson bson, List<? extends Bson> list) {
-		return collection.updateMany(bson, list);
+		UpdateResult result = collection.updateMany(bson, this.withoutMaterializedVersion(list));
+		this.evict(bson);
+		return result;
 	}
 
 	@Override
 	public UpdateResult updateMany(Bson bson, List<? extends Bson> list, UpdateOptions updateOptions) {
-		return collection.updateMany(bson, list, updateOptions);
+		UpdateResult result = collection.updateMany(bson, this.withoutMaterializedVersion(list), updateOptions);
+		this.evict(bson);
+		return result;
 	}
 
 	@Override
 	public UpdateResult updateMany(ClientSession clientSession, Bson bson, List<? extends Bson> list) {
-		return collection.updateMany(clientSession, bson, list);
+		UpdateResult result = collection.updateMany(clientSession, bson, this.withoutMaterializedVersion(list));
+		this.evict(bson);
+		return result;
 	}
 
 	@Override
 	public UpdateResult updateMany(ClientSession clientSession, Bson bson, List<? extends Bson> list, UpdateOptions updateOptions) {
-		return collection.updateMany(clientSession, bson, list, updateOptions);
+		UpdateResult result = collection.updateMany(clientSession, bson, this.withoutMaterializedVersion(list), updateOptions);
+		this.evict(bson);
+		return result;
 	}
 
 	@Override
 	public TDocument findOneAndDelete(Bson filter) {
-		return collection.findOneAndDelete(filter);
+		TDocument result = collection.findOneAndDelete(filter);
+		this.evict(filter);
+		return result;
 	}
 
 	@Override
 	public TDocument findOneAndDelete(Bson filter, FindOneAndDeleteOptions options) {
-		return collection.findOneAndDelete(filter, options);
+		TDocument result = collection.findOneAndDelete(filter, options);
+		this.evict(filter);
+		return result;
 	}
 
 	@Override
 	public TDocument findOneAndDelete(ClientSession clientSession, Bson filter) {
-		return collection.findOneAndDelete(clientSession, filter);
+		TDocument result = collection.findOneAndDelete(clientSession, filter);
+		this.evict(filter);
+		return result;
 	}
 
 	@Override
 	public TDocument findOneAndDelete(ClientSession clientSession, Bson filter, FindOneAndDeleteOptions options) {
-		return collection.findOneAndDelete(clientSession, filter, options);
+		TDocument result = collection.findOneAndDelete(clientSession, filter, options);
+		this.evict(filter);
+		return result;
 	}
 
 	@Override
 	public TDocument findOneAndReplace(Bson filter, TDocument replacement) {
-		return collection.findOneAndReplace(filter, replacement);
+		TDocument result = collection.findOneAndReplace(filter, this.withoutMaterializedVersion(replacement));
+		this.evict(filter);
+		return result;
 	}
 
 	@Override
 	public TDocument findOneAndReplace(Bson filter, TDocument replacement, FindOneAndReplaceOptions options) {
-		return collection.findOneAndReplace(filter, replacement, options);
+		TDocument result = collection.findOneAndReplace(filter, this.withoutMaterializedVersion(replacement), options);
+		this.evict(filter);
+		return result;
 	}
 
 	@Override
 	public TDocument findOneAndReplace(ClientSession clientSession, Bson filter, TDocument replacement) {
-		return collection.findOneAndReplace(clientSession, filter, replacement);
+		TDocument result = collection.findOneAndReplace(clientSession, filter, this.withoutMaterializedVersion(replacement));
+		this.evict(filter);
+		return result;
 	}
 
 	@Override
 	public TDocument findOneAndReplace(ClientSession clientSession, Bson filter, TDocument replacement, FindOneAndReplaceOptions options) {
-		return collection.findOneAndReplace(clientSession, filter, replacement, options);
+		TDocument result = collection.findOneAndReplace(clientSession, filter, this.withoutMaterializedVersion(replacement), options);
+		this.evict(filter);
+		return result;
 	}
 
 	@Override
 	public TDocument findOneAndUpdate(Bson filter, Bson update) {
-		return collection.findOneAndUpdate(filter, update);
+		TDocument result = collection.findOneAndUpdate(filter, this.withoutMaterializedVersion(update));
+		this.evict(filter);
+		return result;
 	}
 
 	@Override
 	public TDocument findOneAndUpdate(Bson filter, Bson update, FindOneAndUpdateOptions options) {
-		return collection.findOneAndUpdate(filter, update, options);
+		TDocument result = collection.findOneAndUpdate(filter, this.withoutMaterializedVersion(update), options);
+		this.evict(filter);
+		return result;
 	}
 
 	@Override
 	public TDocument findOneAndUpdate(ClientSession clientSession, Bson filter, Bson update) {
-		return collection.findOneAndUpdate(clientSession, filter, update);
+		TDocument result = collection.findOneAndUpdate(clientSession, filter, this.withoutMaterializedVersion(update));
+		this.evict(filter);
+		return result;
 	}
 
 	@Override
 	public TDocument findOneAndUpdate(ClientSession clientSession, Bson filter, Bson update, FindOneAndUpdateOptions options) {
-		return collection.findOneAndUpdate(clientSession, filter, update, options);
+		TDocument result = collection.findOneAndUpdate(clientSession, filter, this.withoutMaterializedVersion(update), options);
+		this.evict(filter);
+		return result;
 	}
 
 	@Override
 	public TDocument findOneAndUpdate(Bson bson, List<? extends Bson> list) {
-		return collection.findOneAndUpdate(bson, list);
+		TDocument result = collection.findOneAndUpdate(bson, this.withoutMaterializedVersion(list));
+		this.evict(bson);
+		return result;
 	}
 
 	@Override
 	public TDocument findOneAndUpdate(Bson bson, List<? extends Bson> list, FindOneAndUpdateOptions findOneAndUpdateOptions) {
-		return collection.findOneAndUpdate(bson, list, findOneAndUpdateOptions);
+		TDocument result = collection.findOneAndUpdate(bson, this.withoutMaterializedVersion(list), findOneAndUpdateOptions);
+		this.evict(bson);
+		return result;
 	}
 
 	@Override
 	public TDocument findOneAndUpdate(ClientSession clientSession, Bson bson, List<? extends Bson> list) {
-		return collection.findOneAndUpdate(clientSession, bson, list);
+		TDocument result = collection.findOneAndUpdate(clientSession, bson, this.withoutMaterializedVersion(list));
+		this.evict(bson);
+		return result;
 	}
 
 	@Override
 	public TDocument findOneAndUpdate(ClientSession clientSession, Bson bson, List<? extends Bson> list, FindOneAndUpdateOptions findOneAndUpdateOptions) {
-		return collection.findOneAndUpdate(clientSession, bson, list, findOneAndUpdateOptions);
+		TDocument result = collection.findOneAndUpdate(clientSession, bson, this.withoutMaterializedVersion(list), findOneAndUpdateOptions);
+		this.evict(bson);
+		return result;
 	}
 
 	@Override
 	public void drop() {
 		collection.drop();
+		this.evictAll();
 	}
 
 	@Override
 	public void drop(ClientSession clientSession) {
 		collection.drop(clientSession);
+		this.evictAll();
 	}
 
 	@Override
 	public void drop(DropCollectionOptions dropCollectionOptions) {
 		collection.drop(dropCollectionOptions);
+		this.evictAll();
 	}
 
 	@Override
 	public void drop(ClientSession clientSession, DropCollectionOptions dropCollectionOptions) {
 		collection.drop(clientSession, dropCollectionOptions);
+		this.evictAll();
 	}
 
 	@Override
@@ -971,14 +1155,15 @@ public class RelayCollection<TDocument> implements MongoCollection<TDocument> {
 	@SuppressWarnings("unchecked")
 	public TDocument insertOrUpdate(TDocument item, Bson filter) throws RelayException {
 		try {
-			this.validate(item, filter);
+			// the access is checked by the write itself
+			HibernateValidator.validate(item);
 
 			if (item instanceof Document) {
-				return (TDocument) this.insertOrUpdate((Document) item);
+				return (TDocument) this.insertOrUpdate((Document) item, filter);
 			}
 
 			if (item instanceof RelayModel) {
-				return (TDocument) this.insertOrUpdate((RelayModel) item);
+				return (TDocument) this.insertOrUpdate((RelayModel) item, filter);
 			}
 
 			throw new RelayException(Http.Status.BAD_REQUEST, "invalid_parameters");
@@ -990,6 +1175,343 @@ public class RelayCollection<TDocument> implements MongoCollection<TDocument> {
 		}
 	}
 
+	/**
+	 * Creates a write-behind buffer on this collection, for high rate writes that do not need to be acknowledged
+	 * on the calling thread. Close it on shutdown to drain the pending writes
+	 * @param capacity the maximum number of pending writes, writers block beyond it
+	 * @param flushSize the number of pending writes triggering a flush
+	 * @param flushInterval the maximum time a write stays pending
+	 * @param unit the unit of the flush interval
+	 * @param onError handles the writes of a failed flush, which are not retried
+	 * @return the buffer
+	 */
+	public RelayWriteBehind<TDocument> writeBehind(int capacity, int flushSize, long flushInterval, TimeUnit unit, BiConsumer<List<TDocument>, Exception> onError) {
+		// the buffer writes plain upserts, which would bypass the access lists, versions and materialized fields
+		if (getMongoRelay().isAccessControlled(getDocumentClass(), getDatabase().getCollectionName())) {
+			throw new IllegalStateException("Write-behind is not supported on collections with access control");
+		}
+		if (getMongoRelay().isNormalizedAcl()) {
+			throw new IllegalStateException("Write-behind is not supported with the normalized acl");
+		}
+		if (VersionField.of(getDocumentClass()) != null) {
+			throw new IllegalStateException("Write-behind is not supported on versioned documents");
+		}
+		if (this.isMaterialized()) {
+			throw new IllegalStateException("Write-behind is not supported on materialized options");
+		}
+		return new RelayWriteBehind<>(this, capacity, flushSize, flushInterval, unit, onError);
+	}
+
+	/**
+	 * Inserts or updates the items based on defined access control, in unordered chunks of {@link #DEFAULT_CHUNK_SIZE}
+	 * @param items
+	 * @return the result of each item, in the order of the items
+	 */
+	public List<RelayItemResult<TDocument>> insertOrUpdateAll(List<TDocument> items) {
+		return this.insertOrUpdateAll(items, null, DEFAULT_CHUNK_SIZE, false);
+	}
+
+	/**
+	 * Inserts or updates the items based on defined access control and the given filter, a chunk at a time.
+	 * The items of a chunk are validated in parallel, the access on its updates is checked with a single projected
+	 * $in query, and the chunk is written with a single bulk write.
+	 * The access is checked by the query, a document changing in between and the write are only told apart
+	 * by the bulk write result, not per item
+	 * @param items the items, updated when they have an _id and inserted otherwise
+	 * @param filter the filter the updated documents must match, may be null
+	 * @param chunkSize the number of items written at once
+	 * @param ordered whether to stop at the first failing item, the items after it fail as not executed
+	 * @return the result of each item, in the order of the items
+	 */
+	public List<RelayItemResult<TDocument>> insertOrUpdateAll(List<TDocument> items, Bson filter, int chunkSize, boolean ordered) {
+		if (chunkSize < 1) {
+			throw new IllegalArgumentException("The chunk size must be positive");
+		}
+		List<RelayItemResult<TDocument>> results = new ArrayList<>(items.size());
+		for (int start = 0; start < items.size(); start += chunkSize) {
+			List<TDocument> chunk = items.subList(start, Math.min(start + chunkSize, items.size()));
+			boolean failed = this.insertOrUpdateChunk(chunk, filter, ordered, results);
+			if (ordered && failed) {
+				break;
+			}
+		}
+		// an ordered write does not execute the items after the first failure
+		for (int i = results.size(); i < items.size(); i++) {
+			results.add(RelayItemResult.failure(items.get(i), new RelayException(Http.Status.FAILED_DEPENDENCY, "not_executed")));
+		}
+		return results;
+	}
+
+	/**
+	 * Writes a chunk of items, appending their results
+	 * @return whether any item failed
+	 */
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private boolean insertOrUpdateChunk(List<TDocument> chunk, Bson filter, boolean ordered, List<RelayItemResult<TDocument>> results) {
+		// the validation error of each item, null when valid
+		List<RelayException> errors = chunk.parallelStream()
+				.map(this::validateItem)
+				.collect(Collectors.toList());
+
+		List<ObjectId> ids = new ArrayList<>();
+		for (int i = 0; i < chunk.size(); i++) {
+			ObjectId id = RelayCollection.idOf(chunk.get(i));
+			if (errors.get(i) == null && id != null) {
+				ids.add(id);
+			}
+		}
+		// the access lists of the updated documents, one query for the whole chunk
+		boolean foldFilter = filter == null || !OptionsUtils.hasCalculationOptions(this.getDatabase());
+		VersionField version = VersionField.of(getDocumentClass());
+		String[] projected = version != null ? new String[]{version.getName()} : new String[0];
+		Map<ObjectId, Document> existing = new HashMap<>();
+		if (!ids.isEmpty()) {
+			AccessControl.findAllAccessLists(this, filter, Filters.in(Constants.ID_KEY, ids), projected)
+					.forEach(next -> existing.put(next.getObjectId(Constants.ID_KEY), next));
+		}
+		AccessControl accessControl = getMongoRelay().accessControl(getDocumentClass(), getDatabase().getCollectionName());
+		for (int i = 0; i < chunk.size(); i++) {
+			ObjectId id = RelayCollection.idOf(chunk.get(i));
+			if (errors.get(i) != null || id == null) {
+				continue;
+			}
+			Document found = existing.get(id);
+			if (found == null) {
+				errors.set(i, new RelayException(Http.Status.NOT_FOUND, "not_found", List.of(id)));
+			} else if (accessControl != null && !accessControl.isAccessible(found)) {
+				errors.set(i, new RelayException(Http.Status.FORBIDDEN, "access_forbidden", List.of(id)));
+			} else if (version != null && chunk.get(i) instanceof RelayModel && !Objects.equals(RelayCollection.storedVersion(found, version), version.get(chunk.get(i)))) {
+				errors.set(i, RelayCollection.versionConflict(id));
+			}
+		}
+
+		// an ordered chunk is only written up to its first failing item
+		int limit = chunk.size();
+		if (ordered) {
+			for (int i = 0; i < chunk.size(); i++) {
+				if (errors.get(i) != null) {
+					limit = i;
+					break;
+				}
+			}
+		}
+
+		boolean normalized = getMongoRelay().isNormalizedAcl();
+		Bson access = getMongoRelay().accessPredicate(this);
+		List<WriteModel> writes = new ArrayList<>();
+		List<Integer> positions = new ArrayList<>();
+		// the position of each update, by id
+		Map<ObjectId, Integer> updated = new LinkedHashMap<>();
+		// the version of each versioned item before its write, by position
+		Map<Integer, Long> previousVersions = new HashMap<>();
+		// the positions of the inserts, stamped with a new _id
+		Set<Integer> inserted = new HashSet<>();
+		// the updatedAt of each document before its write, by position
+		Map<Integer, Object> previousUpdatedAt = new HashMap<>();
+		for (int i = 0; i < limit; i++) {
+			if (errors.get(i) != null) {
+				continue;
+			}
+			TDocument item = chunk.get(i);
+			ObjectId id = RelayCollection.idOf(item);
+			List<Bson> filters = new ArrayList<>();
+			if (id != null) {
+				filters.add(Filters.eq(Constants.ID_KEY, id));
+				if (access != null) {
+					filters.add(access);
+				}
+				if (filter != null && foldFilter) {
+					filters.add(filter);
+				}
+			}
+			if (version != null && item instanceof RelayModel) {
+				Long current = version.get(item);
+				previousVersions.put(i, current);
+				if (id != null) {
+					filters.add(Filters.eq(version.getName(), current));
+					version.set(item, current == null ? 1L : current + 1);
+				} else if (current == null) {
+					version.set(item, 0L);
+				}
+			}
+			if (id == null) {
+				inserted.add(i);
+			} else if (item instanceof Document) {
+				previousUpdatedAt.put(i, ((Document) item).get("updatedAt"));
+			}
+			Object document = this.prepareWrite(item, normalized);
+			if (id == null) {
+				writes.add(new InsertOneModel<>(document));
+			} else {
+				writes.add(new ReplaceOneModel<>(Filters.and(filters), document));
+				updated.put(id, i);
+			}
+			positions.add(i);
+		}
+
+		if (!writes.isEmpty()) {
+			MongoCollection target = normalized ? collection.withDocumentClass(BsonDocument.class) : collection;
+			try {
+				BulkWriteResult result = target.bulkWrite(writes, new BulkWriteOptions().ordered(ordered));
+				if (result.wasAcknowledged() && result.getMatchedCount() < updated.size()) {
+					// some documents changed since they were checked, find which ones
+					this.recheckUpdates(chunk, filter, version, updated, errors);
+				}
+			} catch (MongoBulkWriteException ex) {
+				for (BulkWriteError error : ex.getWriteErrors()) {
+					errors.set(positions.get(error.getIndex()), RelayCollection.writeError(error));
+				}
+				if (ordered) {
+					// nothing after the failing write was executed
+					int failedAt = ex.getWriteErrors().stream().mapToInt(BulkWriteError::getIndex).min().orElse(writes.size());
+					limit = Math.min(limit, positions.get(failedAt));
+				}
+			} catch (MongoException ex) {
+				ex.printStackTrace();
+				positions.forEach(position -> errors.set(position, new RelayException(Http.Status.INTERNAL_SERVER_ERROR, "service_unavailable")));
+			}
+			updated.keySet().forEach(this::evict);
+			if (this.isMaterialized()) {
+				List<ObjectId> written = positions.stream()
+						.filter(position -> errors.get(position) == null)
+						.map(position -> RelayCollection.idOf(chunk.get(position)))
+						.collect(Collectors.toList());
+				this.materialize(written);
+			}
+		}
+
+		// the items not written keep the version they were read at, and lose the stamps of their write
+		for (int position : positions) {
+			if (errors.get(position) == null && position <= limit) {
+				continue;
+			}
+			TDocument item = chunk.get(position);
+			if (previousVersions.containsKey(position)) {
+				version.set(item, previousVersions.get(position));
+			}
+			if (inserted.contains(position)) {
+				RelayCollection.clearId(item);
+			} else if (item instanceof Document) {
+				Object previous = previousUpdatedAt.get(position);
+				if (previous == null) {
+					((Document) item).remove("updatedAt");
+				} else {
+					((Document) item).put("updatedAt", previous);
+				}
+			}
+		}
+
+		boolean failed = false;
+		int written = ordered ? Math.min(limit + 1, chunk.size()) : chunk.size();
+		for (int i = 0; i < written; i++) {
+			RelayException error = errors.get(i);
+			failed = failed || error != null;
+			results.add(error == null ? RelayItemResult.success(chunk.get(i)) : RelayItemResult.failure(chunk.get(i), error));
+		}
+		return failed;
+	}
+
+	/**
+	 * Fails the updates that matched nothing, once the bulk write matched fewer documents than it updated.
+	 * A document deleted or no longer matching the filter is not found, one no longer accessible is forbidden,
+	 * and a versioned one not at the written version conflicts. The write of the others is not told apart from a miss,
+	 * these are reported as written
+	 */
+	private void recheckUpdates(List<TDocument> chunk, Bson filter, VersionField version, Map<ObjectId, Integer> updated, List<RelayException> errors) {
+		String[] projected = version != null ? new String[]{version.getName()} : new String[0];
+		Map<ObjectId, Document> existing = new HashMap<>();
+		AccessControl.findAllAccessLists(this, filter, Filters.in(Constants.ID_KEY, updated.keySet()), projected)
+				.forEach(next -> existing.put(next.getObjectId(Constants.ID_KEY), next));
+		AccessControl accessControl = getMongoRelay().accessControl(getDocumentClass(), getDatabase().getCollectionName());
+		updated.forEach((id, position) -> {
+			TDocument item = chunk.get(position);
+			Document found = existing.get(id);
+			if (found == null) {
+				errors.set(position, new RelayException(Http.Status.NOT_FOUND, "not_found", List.of(id)));
+			} else if (accessControl != null && !accessControl.isAccessible(found)) {
+				errors.set(position, new RelayException(Http.Status.FORBIDDEN, "access_forbidden", List.of(id)));
+			} else if (version != null && item instanceof RelayModel && !Objects.equals(RelayCollection.storedVersion(found, version), version.get(item))) {
+				errors.set(position, RelayCollection.versionConflict(id));
+			}
+		});
+	}
+
+	private static Long storedVersion(Document document, VersionField version) {
+		Object value = document.get(version.getName());
+		return value instanceof Number ? ((Number) value).longValue() : null;
+	}
+
+	private static RelayException versionConflict(ObjectId id) {
+		return new RelayException(Http.Status.CONFLICT, ConflictRetry.VERSION_CONFLICT, List.of(id));
+	}
+
+	/**
+	 * @return the validation error of the item, null when it is valid
+	 */
+	private RelayException validateItem(TDocument item) {
+		if (!(item instanceof Document) && !(item instanceof RelayModel)) {
+			return new RelayException(Http.Status.BAD_REQUEST, "invalid_parameters");
+		}
+		try {
+			HibernateValidator.validate(item);
+			return null;
+		} catch (RelayException ex) {
+			return ex;
+		}
+	}
+
+	/**
+	 * Stamps the item for its write, returning the document to write
+	 */
+	private Object prepareWrite(TDocument item, boolean normalized) {
+		if (item instanceof RelayModel) {
+			RelayModel model = (RelayModel) item;
+			if (model.getId() != null) {
+				model.setUpdatedAt(new Date().getTime());
+			} else {
+				model.setId(new ObjectId());
+			}
+			return normalized ? this.encodeWithAcl(model) : item;
+		}
+		Document document = (Document) item;
+		document.remove(MATERIALIZED_VERSION);
+		if (document.getObjectId(Constants.ID_KEY) != null) {
+			document.append("updatedAt", new Date().getTime());
+		} else {
+			document.put(Constants.ID_KEY, new ObjectId());
+		}
+		if (!normalized) {
+			return item;
+		}
+		document.put(AccessControl.ACL, AccessControl.encodeAcl(document.getList(AccessControl.READ_ACL, String.class), document.getList(AccessControl.WRITE_ACL, String.class)));
+		return document.toBsonDocument(BsonDocument.class, getCodecRegistry());
+	}
+
+	private static void clearId(Object item) {
+		if (item instanceof RelayModel) {
+			((RelayModel) item).setId(null);
+		} else if (item instanceof Document) {
+			((Document) item).remove(Constants.ID_KEY);
+		}
+	}
+
+	private static ObjectId idOf(Object item) {
+		if (item instanceof RelayModel) {
+			return ((RelayModel) item).getId();
+		}
+		if (item instanceof Document) {
+			return ((Document) item).getObjectId(Constants.ID_KEY);
+		}
+		return null;
+	}
+
+	private static RelayException writeError(BulkWriteError error) {
+		if (ErrorCategory.fromErrorCode(error.getCode()) == ErrorCategory.DUPLICATE_KEY) {
+			return new RelayException(Http.Status.CONFLICT, "duplicate_key");
+		}
+		return new RelayException(Http.Status.INTERNAL_SERVER_ERROR, error.getMessage());
+	}
+
 	/**
 	 * Inserts a mongo document
 	 * @param item
@@ -997,17 +1519,25 @@ public class RelayCollection<TDocument> implements MongoCollection<TDocument> {
 	 * @throws RelayException
 	 */
 	@SuppressWarnings("unchecked")
-	private Document insertOrUpdate(Document item) throws RelayException {
+	private Document insertOrUpdate(Document item, Bson filter) throws RelayException {
 		try {
+			if (getMongoRelay().isNormalizedAcl()) {
+				item.put(AccessControl.ACL, AccessControl.encodeAcl(item.getList(AccessControl.READ_ACL, String.class), item.getList(AccessControl.WRITE_ACL, String.class)));
+			}
+			item.remove(MATERIALIZED_VERSION);
 			if (item.getObjectId("_id") != null) {
 				item.append("updatedAt", new Date().getTime());
-				UpdateResult result = collection.replaceOne(new BasicDBObject("_id", item.getObjectId("_id")), (TDocument) item);
+				BasicDBObject key = new BasicDBObject("_id", item.getObjectId("_id"));
+				UpdateResult result = collection.replaceOne(this.writeFilter(key, filter), (TDocument) item);
 				if (result.wasAcknowledged() && result.getModifiedCount() > 0) {
+					this.evict(item.getObjectId("_id"));
+					this.materialize(List.of(item.getObjectId("_id")));
 					return item;
 				}
-				throw new RelayException(Http.Status.NOT_FOUND, "not_found");
+				throw this.writeMiss(key, filter, null, RelayCollection.writeConflict(item.getObjectId("_id")));
 			}
 			collection.insertOne((TDocument) item);
+			this.materialize(List.of(item.getObjectId("_id")));
 			return item;
 		} catch (RelayException ex) {
 			throw ex;
@@ -1024,18 +1554,67 @@ public class RelayCollection<TDocument> implements MongoCollection<TDocument> {
 	 * @throws RelayException
 	 */
 	@SuppressWarnings("unchecked")
-	private RelayModel insertOrUpdate(RelayModel item) throws RelayException {
+	private RelayModel insertOrUpdate(RelayModel item, Bson filter) throws RelayException {
 		try {
+			boolean normalized = getMongoRelay().isNormalizedAcl();
+			VersionField version = VersionField.of(item.getClass());
 			if (item.getId() != null) {
 				item.setUpdatedAt(new Date().getTime());
-				UpdateResult result = this.replaceOne(new BasicDBObject("_id", item.getId()), (TDocument) item);
+				BasicDBObject key = new BasicDBObject("_id", item.getId());
+				Bson writeFilter = this.writeFilter(key, filter);
+				// a versioned model is only written over the version it was read at, a missing version matches null
+				Long current = null;
+				if (version != null) {
+					current = version.get(item);
+					writeFilter = Filters.and(writeFilter, Filters.eq(version.getName(), current));
+					version.set(item, current == null ? 1L : current + 1);
+				}
+				UpdateResult result;
+				BsonDocument written;
+				try {
+					// with a snapshot of the loaded document only the changed fields are sent
+					written = item.snapshot() != null && getMongoRelay().isPartialUpdates() ? this.encodeStored(item) : null;
+					BsonDocument update = written != null ? BsonDiff.diff(item.snapshot(), written) : null;
+					if (update != null && !update.isEmpty() && this.isMaterialized()) {
+						// the stored calculated fields are stale until materialized again
+						update.put(BsonDiff.UNSET, update.getDocument(BsonDiff.UNSET, new BsonDocument()).append(MATERIALIZED_VERSION, new BsonString("")));
+					}
+					if (update != null && !update.isEmpty()) {
+						result = collection.updateOne(writeFilter, update);
+					} else if (normalized) {
+						result = collection.withDocumentClass(BsonDocument.class).replaceOne(writeFilter, this.encodeWithAcl(item));
+					} else {
+						result = collection.replaceOne(writeFilter, (TDocument) item);
+					}
+				} catch (RuntimeException ex) {
+					if (version != null) {
+						version.set(item, current);
+					}
+					throw ex;
+				}
 				if (result.wasAcknowledged() && result.getModifiedCount() > 0) {
+					this.evict(item.getId());
+					this.snapshot(item, written);
+					this.materialize(List.of(item.getId()));
 					return item;
 				}
-				throw new RelayException(404, "not_found");
+				if (version != null) {
+					version.set(item, current);
+				}
+				RelayException conflict = version != null ? RelayCollection.versionConflict(item.getId()) : RelayCollection.writeConflict(item.getId());
+				throw this.writeMiss(key, filter, null, conflict);
+			}
+			if (version != null && version.get(item) == null) {
+				version.set(item, 0L);
 			}
 			item.setId(new ObjectId());
-			this.insertOne((TDocument) item);
+			if (normalized) {
+				collection.withDocumentClass(BsonDocument.class).insertOne(this.encodeWithAcl(item));
+			} else {
+				this.insertOne((TDocument) item);
+			}
+			this.snapshot(item, null);
+			this.materialize(List.of(item.getId()));
 			return item;
 		} catch (RelayException ex) {
 			throw ex;
@@ -1045,6 +1624,188 @@ public class RelayCollection<TDocument> implements MongoCollection<TDocument> {
 		}
 	}
 
+	/**
+	 * The filter of a single document write, with the access predicate folded in,
+	 * such that the write checks the access in the same round trip.
+	 * As with the access check it replaces, the given filter only selects the document whose access is required,
+	 * it does not restrict the write, and is ignored without access control.
+	 * Filters on calculated fields can not be evaluated by the write, these are checked with a projected read instead
+	 * @param key
+	 * @param filter
+	 * @return
+	 * @throws RelayException forbidden when the filter is checked beforehand and the document is not accessible
+	 */
+	private Bson writeFilter(Bson key, Bson filter) throws RelayException {
+		Bson access = getMongoRelay().accessPredicate(this);
+		if (access == null) {
+			return key;
+		}
+		if (filter == null) {
+			return Filters.and(key, access);
+		}
+		if (OptionsUtils.hasCalculationOptions(this.getDatabase())) {
+			getMongoRelay().checkAccess(key, this, filter);
+			return key;
+		}
+		return Filters.and(key, Filters.or(Filters.nor(filter), access));
+	}
+
+	/**
+	 * Tells why a write matched nothing
+	 * @param key
+	 * @param filter
+	 * @param id the id reported as not found, may be null
+	 * @param conflict the exception of a document that is there and accessible, yet was not written
+	 * @return not found when the document is missing, the conflict otherwise
+	 * @throws RelayException forbidden when the document matches the filter but is not accessible
+	 */
+	private RelayException writeMiss(Bson key, Bson filter, ObjectId id, RelayException conflict) throws RelayException {
+		if (getMongoRelay().accessPredicate(this) != null) {
+			getMongoRelay().checkAccess(key, this, filter);
+		}
+		if (AccessControl.findAccessLists(this, null, key) != null) {
+			return conflict;
+		}
+		if (id == null) {
+			return new RelayException(Http.Status.NOT_FOUND, "not_found");
+		}
+		return new RelayException(Http.Status.NOT_FOUND, "not_found", List.of(id));
+	}
+
+	/**
+	 * A document that is there and accessible, yet was not written: it changed in between,
+	 * or its normalized acl does not match its access lists
+	 */
+	private static RelayException writeConflict(ObjectId id) {
+		return new RelayException(Http.Status.CONFLICT, WRITE_CONFLICT, List.of(id));
+	}
+
+	/**
+	 * @return whether the calculated fields of the documents are stored, see {@link MongoRelay#withMaterializedOptions(Class)}
+	 */
+	private boolean isMaterialized() {
+		return getMongoRelay().isMaterialized(getDatabase().getSourceClass()) && OptionsUtils.hasCalculationOptions(getDatabase());
+	}
+
+	/**
+	 * Clears the stored version of the updated documents when materialized,
+	 * such that their calculated fields are computed on read until materialized again
+	 * @param update the update operators
+	 * @return the update
+	 */
+	private Bson withoutMaterializedVersion(Bson update) {
+		return this.isMaterialized() ? Updates.combine(update, Updates.unset(MATERIALIZED_VERSION)) : update;
+	}
+
+	private List<? extends Bson> withoutMaterializedVersion(List<? extends Bson> update) {
+		if (!this.isMaterialized()) {
+			return update;
+		}
+		List<Bson> pipeline = new ArrayList<>(update);
+		pipeline.add(Aggregates.unset(MATERIALIZED_VERSION));
+		return pipeline;
+	}
+
+	private <T extends TDocument> T withoutMaterializedVersion(T replacement) {
+		if (replacement instanceof Document && this.isMaterialized()) {
+			((Document) replacement).remove(MATERIALIZED_VERSION);
+		}
+		return replacement;
+	}
+
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private List<? extends WriteModel<? extends TDocument>> withoutMaterializedVersions(List<? extends WriteModel<? extends TDocument>> requests) {
+		if (!this.isMaterialized()) {
+			return requests;
+		}
+		List<WriteModel<? extends TDocument>> written = new ArrayList<>(requests.size());
+		for (WriteModel<? extends TDocument> request : requests) {
+			if (request instanceof UpdateOneModel) {
+				UpdateOneModel update = (UpdateOneModel) request;
+				written.add(update.getUpdate() != null
+						? new UpdateOneModel<>(update.getFilter(), this.withoutMaterializedVersion(update.getUpdate()), update.getOptions())
+						: new UpdateOneModel<>(update.getFilter(), this.withoutMaterializedVersion(update.getUpdatePipeline()), update.getOptions()));
+			} else if (request instanceof UpdateManyModel) {
+				UpdateManyModel update = (UpdateManyModel) request;
+				written.add(update.getUpdate() != null
+						? new UpdateManyModel<>(update.getFilter(), this.withoutMaterializedVersion(update.getUpdate()), update.getOptions())
+						: new UpdateManyModel<>(update.getFilter(), this.withoutMaterializedVersion(update.getUpdatePipeline()), update.getOptions()));
+			} else {
+				if (request instanceof ReplaceOneModel) {
+					this.withoutMaterializedVersion((TDocument) ((ReplaceOneModel) request).getReplacement());
+				} else if (request instanceof InsertOneModel) {
+					this.withoutMaterializedVersion((TDocument) ((InsertOneModel) request).getDocument());
+				}
+				written.add(request);
+			}
+		}
+		return written;
+	}
+
+	/**
+	 * Stores the calculated fields of the written documents, when materialized.
+	 * A failure is only logged, the fields of these documents are then computed on read until refreshed
+	 * @param ids the ids of the written documents
+	 */
+	private void materialize(List<ObjectId> ids) {
+		if (!this.isMaterialized()) {
+			return;
+		}
+		try {
+			OptionsMaterializer.materialize(collection, OptionsUtils.getOptionsPipeline(getDatabase(), getDatabase().getSourceClass()), ids);
+		} catch (MongoException ex) {
+			ex.printStackTrace();
+		}
+	}
+
+	/**
+	 * Encodes a model with the codec of the collection, adding the denormalized acl array the model does not declare
+	 * @param item
+	 * @return
+	 */
+	private BsonDocument encodeWithAcl(RelayModel item) {
+		BsonDocument document = this.encode(item);
+		BsonArray acl = new BsonArray();
+		AccessControl.encodeAcl(item.getReadACL(), item.getWriteACL()).forEach(role -> acl.add(new BsonString(role)));
+		document.put(AccessControl.ACL, acl);
+		return document;
+	}
+
+	/**
+	 * Encodes a model with the codec of the collection
+	 * @param item
+	 * @return
+	 */
+	@SuppressWarnings("unchecked")
+	private BsonDocument encode(RelayModel item) {
+		Codec<RelayModel> codec = (Codec<RelayModel>) getCodecRegistry().get(item.getClass());
+		BsonDocument document = new BsonDocument();
+		codec.encode(new BsonDocumentWriter(document), item, EncoderContext.builder().isEncodingCollectibleDocument(true).build());
+		return document;
+	}
+
+	/**
+	 * Encodes a model the way insertOrUpdate stores it
+	 * @param item
+	 * @return
+	 */
+	private BsonDocument encodeStored(RelayModel item) {
+		return getMongoRelay().isNormalizedAcl() ? this.encodeWithAcl(item) : this.encode(item);
+	}
+
+	/**
+	 * Remembers the stored document of a loaded or written model, when partial updates are enabled
+	 * @param item the model, other items are ignored
+	 * @param stored the stored document if already encoded, null to encode it
+	 */
+	protected void snapshot(Object item, BsonDocument stored) {
+		if (!(item instanceof RelayModel) || !getMongoRelay().isPartialUpdates()) {
+			return;
+		}
+		RelayModel model = (RelayModel) item;
+		model.snapshot(stored != null ? stored : this.encodeStored(model));
+	}
+
 	/**
 	 * Deletes a document from mongo, given the access control
 	 * @param item
@@ -1086,8 +1847,6 @@ public class RelayCollection<TDocument> implements MongoCollection<TDocument> {
 	 */
 	public <TDocument> TDocument deleteItem(TDocument item, Bson filter) throws RelayException {
 		try {
-			this.validate(item, filter, false);
-
 			ObjectId id = null;
 			if (item instanceof Document) {
 				id = ((Document) item).getObjectId("_id");
@@ -1097,15 +1856,17 @@ public class RelayCollection<TDocument> implements MongoCollection<TDocument> {
 				id = ((RelayModel) item).getId();
 			}
 
-			DeleteResult result = this.deleteOne(new BasicDBObject("_id", id));
-			if (result.wasAcknowledged() && result.getDeletedCount() > 0) {
-				return item;
-			}
 			// if no objcetid return bad request else not found
 			if (id == null) {
 				throw new RelayException(Http.Status.BAD_REQUEST, "invalid_parameters");
 			}
-			throw new RelayException(Http.Status.NOT_FOUND, "not_found", List.of(id));
+			BasicDBObject key = new BasicDBObject("_id", id);
+			DeleteResult result = collection.deleteOne(this.writeFilter(key, filter));
+			if (result.wasAcknowledged() && result.getDeletedCount() > 0) {
+				this.evict(id);
+				return item;
+			}
+			throw this.writeMiss(key, filter, id, RelayCollection.writeConflict(id));
 		} catch (RelayException ex) {
 			throw ex;
 		} catch (Exception ex) {
@@ -1115,6 +1876,111 @@ public class RelayCollection<TDocument> implements MongoCollection<TDocument> {
 	}
 
 
+	/**
+	 * Deletes the documents of the given ids based on access control and filtering, a chunk at a time.
+	 * The access lists of a chunk are read with a single projected $in query, and its accessible documents
+	 * are deleted with a single deleteMany
+	 * @param ids the ids of the documents
+	 * @param filter the filter the deleted documents must match, may be null
+	 * @param cascade the dependent classes whose documents referencing the deleted ones by _id are deleted as well
+	 * @return the result of each id, in the order of the ids
+	 */
+	public List<RelayItemResult<ObjectId>> deleteItems(Collection<ObjectId> ids, Bson filter, Class<?>... cascade) {
+		List<ObjectId> items = new ArrayList<>(ids);
+		List<RelayItemResult<ObjectId>> results = new ArrayList<>(items.size());
+		for (int start = 0; start < items.size(); start += DEFAULT_CHUNK_SIZE) {
+			List<ObjectId> chunk = items.subList(start, Math.min(start + DEFAULT_CHUNK_SIZE, items.size()));
+			this.deleteChunk(chunk, filter, cascade, results);
+		}
+		return results;
+	}
+
+	/**
+	 * Deletes a chunk of ids, appending their results
+	 */
+	private void deleteChunk(List<ObjectId> chunk, Bson filter, Class<?>[] cascade, List<RelayItemResult<ObjectId>> results) {
+		Map<ObjectId, RelayException> errors = new HashMap<>();
+		Map<ObjectId, Document> existing = new HashMap<>();
+		List<ObjectId> keys = chunk.stream().filter(Objects::nonNull).distinct().collect(Collectors.toList());
+		try {
+			if (!keys.isEmpty()) {
+				AccessControl.findAllAccessLists(this, filter, Filters.in(Constants.ID_KEY, keys))
+						.forEach(next -> existing.put(next.getObjectId(Constants.ID_KEY), next));
+			}
+			AccessControl accessControl = getMongoRelay().accessControl(getDocumentClass(), getDatabase().getCollectionName());
+			List<ObjectId> allowed = new ArrayList<>();
+			for (ObjectId id : keys) {
+				Document found = existing.get(id);
+				if (found == null) {
+					errors.put(id, new RelayException(Http.Status.NOT_FOUND, "not_found", List.of(id)));
+				} else if (accessControl != null && !accessControl.isAccessible(found)) {
+					errors.put(id, new RelayException(Http.Status.FORBIDDEN, "access_forbidden", List.of(id)));
+				} else {
+					allowed.add(id);
+				}
+			}
+			if (!allowed.isEmpty()) {
+				List<Bson> filters = new ArrayList<>();
+				filters.add(Filters.in(Constants.ID_KEY, allowed));
+				Bson access = getMongoRelay().accessPredicate(this);
+				if (access != null) {
+					filters.add(access);
+				}
+				if (filter != null && !OptionsUtils.hasCalculationOptions(this.getDatabase())) {
+					filters.add(filter);
+				}
+				collection.deleteMany(Filters.and(filters));
+				allowed.forEach(this::evict);
+				for (Class<?> dependent : cascade) {
+					this.cascadeDelete(allowed, dependent);
+				}
+			}
+		} catch (MongoException ex) {
+			ex.printStackTrace();
+			keys.forEach(id -> errors.putIfAbsent(id, new RelayException(Http.Status.INTERNAL_SERVER_ERROR, "service_unavailable")));
+		}
+		for (ObjectId id : chunk) {
+			if (id == null) {
+				results.add(RelayItemResult.failure(null, new RelayException(Http.Status.BAD_REQUEST, "invalid_parameters")));
+				continue;
+			}
+			RelayException error = errors.get(id);
+			results.add(error == null ? RelayItemResult.success(id) : RelayItemResult.failure(id, error));
+		}
+	}
+
+	/**
+	 * Deletes the documents of the dependent class referencing the deleted ids through a single field reference on _id,
+	 * based on the access control of the dependent collection
+	 */
+	private void cascadeDelete(List<ObjectId> ids, Class<?> dependent) {
+		MongoRelay relay = getMongoRelay();
+		String collectionName = getDatabase().getCollectionName();
+		for (IReference reference : ReferenceRegistry.discover(dependent)) {
+			if (!(reference instanceof ReferencedField)) {
+				continue;
+			}
+			ReferencedField referencedField = (ReferencedField) reference;
+			if (!referencedField.isValid() || referencedField.isMultipleFieldReference()) {
+				continue;
+			}
+			FieldReference fieldReference = referencedField.getReferencesList().get(0);
+			Class<?> target = referencedField.getTargetClass();
+			if (fieldReference.hasDynamicSource() || fieldReference.hasDynamicTarget() || ClassUtils.isDynamicEntity(target)) {
+				continue;
+			}
+			String targetCollection = TextUtils.isNullOrEmpty(referencedField.getTargetCollection()) ?
+					relay.on(target).getCollectionName() :
+					referencedField.getTargetCollection();
+			if (!collectionName.equals(targetCollection) || !Constants.ID_KEY.equals(fieldReference.getMongoTarget(target))) {
+				continue;
+			}
+			RelayCollection<?> dependents = relay.on(dependent).getCollection();
+			List<Bson> filters = dependents.filterWithAcl(Filters.in(fieldReference.getMongoSource(referencedField.getClazz()), ids));
+			dependents.deleteMany(Filters.and(filters));
+		}
+	}
+
 	/**
 	 * Deletes an object async based on access control
 	 * @param item
@@ -1152,12 +2018,13 @@ public class RelayCollection<TDocument> implements MongoCollection<TDocument> {
 			if (id == null) {
 				throw new RelayException(Http.Status.BAD_REQUEST, "invalid_parameters");
 			}
-			this.validate(id, filter, false);
-			DeleteResult result = this.deleteOne(new BasicDBObject("_id", id));
+			BasicDBObject key = new BasicDBObject("_id", id);
+			DeleteResult result = collection.deleteOne(this.writeFilter(key, filter));
 			if (result.wasAcknowledged() && result.getDeletedCount() > 0) {
+				this.evict(id);
 				return id;
 			}
-			throw new RelayException(Http.Status.NOT_FOUND, "not_found", List.of(id));
+			throw this.writeMiss(key, filter, id, RelayCollection.writeConflict(id));
 		} catch (RelayException ex) {
 			throw ex;
 		} catch (Exception ex) {
@@ -28,7 +28,7 @@ public class RelayCursor<TDocument, TResult> implements MongoCursor<TResult> {
 
 	@Override
 	public TResult next() {
-		return relayMongoIterable.getMongoRelay().map(cursor.next(), relayMongoIterable.getClazz());
+		return relayMongoIterable.mapReferences(cursor.next());
 	}
 
 	@Override
@@ -43,7 +43,7 @@ public class RelayCursor<TDocument, TResult> implements MongoCursor<TResult> {
 		if (result == null) {
 			return null;
 		}
-		return relayMongoIterable.getMongoRelay().map(result, relayMongoIterable.getClazz());
+		return relayMongoIterable.mapReferences(result);
 	}
 
 	@Override
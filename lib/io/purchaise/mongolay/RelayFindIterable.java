@@ -59,6 +59,11 @@ public class RelayFindIterable<TDocument, TResult> extends RelayMongoIterable<TD
 		return this;
 	}
 
+	@Override
+	protected boolean snapshots() {
+		return getMongoRelay().isPartialUpdates();
+	}
+
 	/**
 	 * Removes the access flag, and resets filtering
 	 * @return RelayFindIterable<TDocument, TResult>
@@ -218,7 +223,7 @@ public class RelayFindIterable<TDocument, TResult> extends RelayMongoIterable<TD
 
 	@Override
 	public MongoCursor<TResult> cursor() {
-		return new RelayCursor<>(this, findIterable.cursor());
+		return this.relayCursor(findIterable.cursor());
 	}
 
 	@Override
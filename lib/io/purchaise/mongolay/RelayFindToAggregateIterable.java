@@ -12,6 +12,7 @@ import com.mongodb.client.model.Filters;
 import com.mongodb.client.model.Projections;
 import com.mongodb.internal.client.model.FindOptions;
 import io.purchaise.mongolay.annotations.Index;
+import io.purchaise.mongolay.references.ReferenceStrategy;
 import lombok.Getter;
 import org.apache.commons.lang3.reflect.FieldUtils;
 import org.bson.BsonValue;
@@ -34,6 +35,10 @@ import java.util.stream.Collectors;
 public class RelayFindToAggregateIterable<TDocument, TResult> extends RelayFindIterable<TDocument, TResult> {
 	private final FindOptions findOptions;
 	private Bson filter;
+	/**
+	 * How the references of the results are resolved, null uses the strategy of the relay
+	 */
+	private ReferenceStrategy referenceStrategy;
 
 	public RelayFindToAggregateIterable(RelayCollection<TDocument> collection, FindIterable<TResult> findIterable, Class<TResult> clazz) {
 		super(collection, findIterable, clazz);
@@ -51,6 +56,16 @@ public class RelayFindToAggregateIterable<TDocument, TResult> extends RelayFindI
 		return filters;
 	}
 
+	/**
+	 * Selects how the references of the results of this query are resolved
+	 * @param referenceStrategy the strategy
+	 * @return this iterable
+	 */
+	public RelayFindToAggregateIterable<TDocument, TResult> referenceStrategy(ReferenceStrategy referenceStrategy) {
+		this.referenceStrategy = referenceStrategy;
+		return this;
+	}
+
 	@Override
 	public RelayFindIterable<TDocument, TResult> limit(int limit) {
 		this.findOptions.limit(limit);
@@ -262,11 +277,9 @@ public class RelayFindToAggregateIterable<TDocument, TResult> extends RelayFindI
             .filter(limit -> limit > 0)
             .ifPresent(limit -> pipeline.add(Aggregates.limit(limit)));
 
-        RelayAggregation<TDocument, TResult> relayAggregation = new RelayAggregation<>(
-            this.getRelayCollection(),
-            this.getRelayCollection().aggregate(pipeline, this.getClazz()),
-            this.getClazz()
-        );
+        ReferenceStrategy strategy = Optional.ofNullable(this.getReferenceStrategy())
+            .orElse(this.getMongoRelay().getReferenceStrategy());
+        RelayAggregation<TDocument, TResult> relayAggregation = this.getRelayCollection().aggregate(pipeline, this.getClazz(), strategy);
 
         // Set remaining options on relayAggregation
         Optional.of(findOptions.getBatchSize()).ifPresent(relayAggregation::batchSize);
@@ -0,0 +1,34 @@
+package io.purchaise.mongolay;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * The outcome of a single item of a bulk operation, either the written item or the error it failed with
+ */
+@Getter
+@ToString
+@AllArgsConstructor
+public class RelayItemResult<T> {
+	/**
+	 * The item, as written when successful
+	 */
+	private final T item;
+	/**
+	 * The error of the item, null when successful
+	 */
+	private final RelayException error;
+
+	public static <T> RelayItemResult<T> success(T item) {
+		return new RelayItemResult<>(item, null);
+	}
+
+	public static <T> RelayItemResult<T> failure(T item, RelayException error) {
+		return new RelayItemResult<>(item, error);
+	}
+
+	public boolean isSuccess() {
+		return error == null;
+	}
+}
@@ -1,5 +1,8 @@
 package io.purchaise.mongolay;
 
+import io.purchaise.mongolay.utils.RoleSet;
+import org.bson.BsonDocument;
+import org.bson.codecs.pojo.annotations.BsonIgnore;
 import org.bson.types.ObjectId;
 
 import java.io.Serializable;
@@ -14,10 +17,38 @@ public abstract class RelayModel implements Cloneable, Serializable {
 	protected abstract Set<String> getWriteACL();
 	protected abstract Set<String> getReadACL();
 
+	/**
+	 * The document as loaded by the relay, from which partial updates are computed
+	 */
+	@BsonIgnore
+	private transient BsonDocument snapshot;
+
+	/**
+	 * @return the document as loaded or last written by the relay, null unless partial updates are enabled
+	 */
+	public BsonDocument snapshot () {
+		return snapshot;
+	}
+
+	void snapshot (BsonDocument snapshot) {
+		this.snapshot = snapshot;
+	}
+
+	/**
+	 * Forgets the loaded document, such that the next update replaces the whole document
+	 */
+	public void clearSnapshot () {
+		this.snapshot = null;
+	}
+
 	public boolean isAccessible (AccessLevelType type, List<String> roles) {
 		return RelayModel.isAccessible(type, roles, getReadACL(), getWriteACL());
 	}
 
+	public boolean isAccessible (AccessLevelType type, RoleSet roles) {
+		return RelayModel.isAccessible(type, roles, getReadACL(), getWriteACL());
+	}
+
 	public static boolean isAccessible (AccessLevelType type, List<String> roles, Collection<String> readACL, Collection<String> writeACL) {
 		switch (type) {
 			case NONE:
@@ -30,6 +61,22 @@ public abstract class RelayModel implements Cloneable, Serializable {
 		return true;
 	}
 
+	/**
+	 * Checks the access of the given roles, build the role set once when checking many documents.
+	 * The list overloads do not allocate, and suit a single check
+	 */
+	public static boolean isAccessible (AccessLevelType type, RoleSet roles, Collection<String> readACL, Collection<String> writeACL) {
+		switch (type) {
+			case NONE:
+				return true;
+			case WRITE:
+				return RelayModel.isWritableFromRoles(roles, readACL, writeACL);
+			case READ:
+				return RelayModel.isReadableFromRoles(roles, readACL, writeACL);
+		}
+		return true;
+	}
+
 	public boolean isReadableFromRoles (List<String> roles) {
 		return isReadableFromRoles(roles, getReadACL(), getWriteACL());
 	}
@@ -49,6 +96,16 @@ public abstract class RelayModel implements Cloneable, Serializable {
 		return false;
 	}
 
+	public static boolean isReadableFromRoles (RoleSet roles, Collection<String> readACL, Collection<String> writeACL) {
+		if (RelayModel.isWritableFromRoles(roles, readACL, writeACL)) {
+			return true;
+		}
+		if (readACL.contains("*")) {
+			return true;
+		}
+		return roles.containsAny(readACL);
+	}
+
 	public boolean isWritableFromRoles (List<String> roles) {
 		return RelayModel.isWritableFromRoles(roles, getReadACL(), getWriteACL());
 	}
@@ -67,4 +124,14 @@ public abstract class RelayModel implements Cloneable, Serializable {
 		}
 		return false;
 	}
+
+	public static boolean isWritableFromRoles (RoleSet roles, Collection<String> readACL, Collection<String> writeACL) {
+		if (writeACL.size() == 0 && readACL.size() == 0) {
+			return true;
+		}
+		if (writeACL.contains("*")) {
+			return true;
+		}
+		return roles.containsAny(writeACL);
+	}
 }
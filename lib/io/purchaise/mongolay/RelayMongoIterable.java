@@ -3,8 +3,11 @@ package io.purchaise.mongolay;
 import com.mongodb.Function;
 import com.mongodb.client.MongoCursor;
 import com.mongodb.client.MongoIterable;
+import io.purchaise.mongolay.references.IReference;
 import lombok.Getter;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
 import java.util.concurrent.Executor;
@@ -20,6 +23,11 @@ public class RelayMongoIterable<TDocument, TResult> implements MongoIterable<TRe
 	private MongoIterable<TResult> mongoIterable;
 	@Getter
 	private Class<TResult> clazz;
+	/**
+	 * References already resolved by the query, which the mapping skips
+	 */
+	@Getter
+	private List<IReference> resolvedReferences = Collections.emptyList();
 
 	public MongoRelay getMongoRelay () {
 		return relayCollection.getMongoRelay();
@@ -31,14 +39,60 @@ public class RelayMongoIterable<TDocument, TResult> implements MongoIterable<TRe
 		this.clazz = clazz;
 	}
 
+	public RelayMongoIterable(RelayCollection<TDocument> collection, MongoIterable<TResult> mongoIterable, Class<TResult> clazz, List<IReference> resolvedReferences) {
+		this(collection, mongoIterable, clazz);
+		this.resolvedReferences = resolvedReferences;
+	}
+
+	/**
+	 * Maps the references of the given results
+	 * @param items the results
+	 * @return the results
+	 */
+	public <A extends Collection<? super TResult>> A mapReferences(A items) {
+		if (this.snapshots()) {
+			items.forEach(item -> relayCollection.snapshot(item, null));
+		}
+		return getMongoRelay().map(items, clazz, resolvedReferences);
+	}
+
+	public TResult mapReferences(TResult item) {
+		if (this.snapshots()) {
+			relayCollection.snapshot(item, null);
+		}
+		return getMongoRelay().map(item, clazz, resolvedReferences);
+	}
+
+	/**
+	 * Whether the loaded models remember their document for partial updates, before their references are mapped.
+	 * Only finds load the documents as stored
+	 */
+	protected boolean snapshots() {
+		return false;
+	}
+
 	@Override
 	public MongoCursor<TResult> iterator() {
-		return new RelayCursor<>(this, mongoIterable.iterator());
+		return this.relayCursor(mongoIterable.iterator());
 	}
 
 	@Override
 	public MongoCursor<TResult> cursor() {
-		return new RelayCursor<>(this, mongoIterable.cursor());
+		return this.relayCursor(mongoIterable.cursor());
+	}
+
+	/**
+	 * Wraps the given cursor, such that the references are mapped while iterating
+	 * In batching mode the references are mapped for a chunk of documents at once
+	 * @param cursor the underlying cursor
+	 * @return the relay cursor
+	 */
+	protected MongoCursor<TResult> relayCursor(MongoCursor<TResult> cursor) {
+		int batchSize = getMongoRelay().getCursorBatchSize();
+		if (batchSize > 1) {
+			return new RelayBatchCursor<>(this, cursor, batchSize);
+		}
+		return new RelayCursor<>(this, cursor);
 	}
 
 	@Override
@@ -47,7 +101,10 @@ public class RelayMongoIterable<TDocument, TResult> implements MongoIterable<TRe
 		if (result == null) {
 			return null;
 		}
-		return getMongoRelay().map(result, relayCollection.getDocumentClass());
+		if (this.snapshots()) {
+			relayCollection.snapshot(result, null);
+		}
+		return getMongoRelay().map(result, relayCollection.getDocumentClass(), resolvedReferences);
 	}
 
 
@@ -69,13 +126,16 @@ public class RelayMongoIterable<TDocument, TResult> implements MongoIterable<TRe
 
 	@Override
 	public void forEach(Consumer<? super TResult> block) {
-		mongoIterable.forEach(block);
+		// the cursor maps the references one by one or chunk by chunk, the batch size never changes the results
+		try (MongoCursor<TResult> cursor = this.cursor()) {
+			cursor.forEachRemaining(block);
+		}
 	}
 
 	@Override
 	public <A extends Collection<? super TResult>> A into(A target) {
 		mongoIterable.into(target);
-		return getMongoRelay().map(target, getClazz());
+		return this.mapReferences(target);
 	}
 
 	public <A extends Collection<? super TResult>> CompletableFuture<A> into(A target, Executor context) {
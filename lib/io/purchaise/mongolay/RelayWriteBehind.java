@@ -0,0 +1,307 @@
+package io.purchaise.mongolay;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.WriteModel;
+import io.purchaise.mongolay.utils.HibernateValidator;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+
+/**
+ * Asynchronous write-behind buffer for high rate writes, such as trackers and loggers.
+ * Writes to the same _id are coalesced, only the latest one is written, and the buffer is flushed with a single
+ * unordered bulk write of upserts once it holds the flush size or the flush interval elapses.
+ * Writers block while the buffer is full, and closing the buffer drains it.
+ * Writes are validated but not access checked, the buffer is meant for collections without access control.
+ * Items are written as plain upserts, without a normalized acl, a version or materialized calculated fields.
+ * The buffer holds the written instances, not copies, so changes made to an item until it is flushed are written too
+ */
+public class RelayWriteBehind<TDocument> implements AutoCloseable {
+	private final MongoCollection<TDocument> collection;
+	private final int capacity;
+	private final int flushSize;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition notFull = lock.newCondition();
+	// the pending writes by _id, in the order they were first buffered
+	private Map<ObjectId, TDocument> buffer = new LinkedHashMap<>();
+	private long oldestBuffered;
+	private boolean closed;
+
+	private final ScheduledExecutorService scheduler;
+	// flushes run one at a time, such that the writes to an _id reach the database in order
+	private final Object flushing = new Object();
+	private final BiConsumer<List<TDocument>, Exception> onError;
+
+	private final LongAdder buffered = new LongAdder();
+	private final LongAdder coalesced = new LongAdder();
+	private final LongAdder written = new LongAdder();
+	private final LongAdder failed = new LongAdder();
+	private final LongAdder flushes = new LongAdder();
+	private final LongAdder flushNanos = new LongAdder();
+	private final AtomicLong maxFlushNanos = new AtomicLong();
+	private final AtomicLong maxDelayNanos = new AtomicLong();
+
+	/**
+	 * @param collection the collection written to, any stand-in supporting bulk writes will do
+	 * @param capacity the maximum number of pending writes, writers block beyond it
+	 * @param flushSize the number of pending writes triggering a flush
+	 * @param flushInterval the maximum time a write stays pending
+	 * @param unit the unit of the flush interval
+	 * @param onError handles the writes of a failed flush, which are not retried
+	 */
+	public RelayWriteBehind(MongoCollection<TDocument> collection, int capacity, int flushSize, long flushInterval, TimeUnit unit, BiConsumer<List<TDocument>, Exception> onError) {
+		if (capacity < 1 || flushSize < 1 || flushSize > capacity) {
+			throw new IllegalArgumentException("The flush size must be positive and not exceed the capacity");
+		}
+		this.onError = Objects.requireNonNull(onError, "The failed writes must be handled");
+		this.collection = collection;
+		this.capacity = capacity;
+		this.flushSize = flushSize;
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, String.format("mongolay-write-behind-%s", collection.getNamespace().getCollectionName()));
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.scheduler.scheduleWithFixedDelay(this::flushQuietly, flushInterval, flushInterval, unit);
+	}
+
+	/**
+	 * Buffers the write of the item, blocking while the buffer is full.
+	 * Items without an _id get one, and are inserted by the flush
+	 * @param item the item
+	 * @throws RelayException bad request when the item is not valid
+	 * @throws InterruptedException when interrupted while waiting for room
+	 */
+	public void write(TDocument item) throws RelayException, InterruptedException {
+		this.offer(item, Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Buffers the write of the item, waiting up to the given timeout for room
+	 * @param item the item
+	 * @param timeout the maximum time to wait
+	 * @param unit the unit of the timeout
+	 * @return whether the write was buffered
+	 * @throws RelayException bad request when the item is not valid
+	 * @throws InterruptedException when interrupted while waiting for room
+	 */
+	public boolean offer(TDocument item, long timeout, TimeUnit unit) throws RelayException, InterruptedException {
+		HibernateValidator.validate(item);
+		ObjectId id = this.idOf(item);
+		boolean flush;
+		long remaining = unit.toNanos(timeout);
+		lock.lockInterruptibly();
+		try {
+			while (!closed && buffer.size() >= capacity && !buffer.containsKey(id)) {
+				if (remaining <= 0) {
+					return false;
+				}
+				remaining = notFull.awaitNanos(remaining);
+			}
+			if (closed) {
+				throw new IllegalStateException("The write-behind buffer is closed");
+			}
+			// the item is only stamped once accepted, a write timing out leaves it untouched
+			id = this.stamp(item);
+			if (buffer.isEmpty()) {
+				oldestBuffered = System.nanoTime();
+			}
+			if (buffer.put(id, item) != null) {
+				coalesced.increment();
+			}
+			buffered.increment();
+			flush = buffer.size() == flushSize;
+		} finally {
+			lock.unlock();
+		}
+		if (flush) {
+			try {
+				scheduler.execute(this::flushQuietly);
+			} catch (RejectedExecutionException ignore) {
+				// closing, the pending writes are drained by close
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Writes the pending writes, on the calling thread
+	 * @return the number of written items
+	 */
+	public int flush() {
+		synchronized (flushing) {
+			Map<ObjectId, TDocument> pending;
+			long oldest;
+			lock.lock();
+			try {
+				if (buffer.isEmpty()) {
+					return 0;
+				}
+				pending = buffer;
+				oldest = oldestBuffered;
+				buffer = new LinkedHashMap<>();
+				notFull.signalAll();
+			} finally {
+				lock.unlock();
+			}
+
+			List<WriteModel<TDocument>> writes = new ArrayList<>(pending.size());
+			ReplaceOptions upsert = new ReplaceOptions().upsert(true);
+			pending.forEach((id, item) -> writes.add(new ReplaceOneModel<>(Filters.eq(Constants.ID_KEY, id), item, upsert)));
+			long start = System.nanoTime();
+			try {
+				collection.bulkWrite(writes, new BulkWriteOptions().ordered(false));
+				written.add(pending.size());
+			} catch (Exception exception) {
+				failed.add(pending.size());
+				onError.accept(new ArrayList<>(pending.values()), exception);
+			} finally {
+				long end = System.nanoTime();
+				flushes.increment();
+				flushNanos.add(end - start);
+				maxFlushNanos.accumulateAndGet(end - start, Math::max);
+				maxDelayNanos.accumulateAndGet(end - oldest, Math::max);
+			}
+			return pending.size();
+		}
+	}
+
+	private void flushQuietly() {
+		try {
+			this.flush();
+		} catch (RuntimeException exception) {
+			// a failing error handler must not cancel the scheduled flushes
+			Thread thread = Thread.currentThread();
+			thread.getUncaughtExceptionHandler().uncaughtException(thread, exception);
+		}
+	}
+
+	/**
+	 * Stops accepting writes and drains the pending ones
+	 */
+	@Override
+	public void close() {
+		lock.lock();
+		try {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			notFull.signalAll();
+		} finally {
+			lock.unlock();
+		}
+		scheduler.shutdown();
+		try {
+			scheduler.awaitTermination(1, TimeUnit.MINUTES);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		this.flush();
+	}
+
+	/**
+	 * Assigns the _id of new items and stamps the update time of the existing ones, as insertOrUpdate does
+	 */
+	private ObjectId idOf(TDocument item) throws RelayException {
+		if (item instanceof RelayModel) {
+			return ((RelayModel) item).getId();
+		}
+		if (item instanceof Document) {
+			return ((Document) item).getObjectId(Constants.ID_KEY);
+		}
+		throw new RelayException(Http.Status.BAD_REQUEST, "invalid_parameters");
+	}
+
+	/**
+	 * Gives a new item an _id, and stamps the update time of an existing one
+	 * @return the _id of the item
+	 */
+	private ObjectId stamp(TDocument item) {
+		if (item instanceof RelayModel) {
+			RelayModel model = (RelayModel) item;
+			if (model.getId() == null) {
+				model.setId(new ObjectId());
+			} else {
+				model.setUpdatedAt(new Date().getTime());
+			}
+			return model.getId();
+		}
+		if (item instanceof Document) {
+			Document document = (Document) item;
+			if (document.getObjectId(Constants.ID_KEY) == null) {
+				document.put(Constants.ID_KEY, new ObjectId());
+			} else {
+				document.append("updatedAt", new Date().getTime());
+			}
+			return document.getObjectId(Constants.ID_KEY);
+		}
+		return null;
+	}
+
+	public int size() {
+		lock.lock();
+		try {
+			return buffer.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the number of buffered writes, coalesced ones included
+	 */
+	public long getBuffered() {
+		return buffered.sum();
+	}
+
+	/**
+	 * @return the number of writes replaced by a later write to the same _id before being flushed
+	 */
+	public long getCoalesced() {
+		return coalesced.sum();
+	}
+
+	public long getWritten() {
+		return written.sum();
+	}
+
+	public long getFailed() {
+		return failed.sum();
+	}
+
+	public long getFlushes() {
+		return flushes.sum();
+	}
+
+	/**
+	 * @return the average duration of a flush bulk write, in nanoseconds
+	 */
+	public double getAverageFlushNanos() {
+		long count = this.getFlushes();
+		return count == 0 ? 0 : (double) flushNanos.sum() / count;
+	}
+
+	public long getMaxFlushNanos() {
+		return maxFlushNanos.get();
+	}
+
+	/**
+	 * @return the longest time a write stayed pending before its flush completed, in nanoseconds
+	 */
+	public long getMaxDelayNanos() {
+		return maxDelayNanos.get();
+	}
+}
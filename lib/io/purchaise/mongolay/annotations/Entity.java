@@ -22,4 +22,11 @@ public @interface Entity {
      * that vary based on runtime conditions (e.g, postfixes or other criteria).
      */
     boolean dynamic() default false;
+
+    /**
+     * Indicates whether the referenced documents of this entity can be kept in the shared reference cache
+     *
+     * @see io.purchaise.mongolay.references.ReferenceCache
+     */
+    boolean cache() default false;
 }
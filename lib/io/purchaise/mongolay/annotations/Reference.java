@@ -29,6 +29,11 @@ public @interface Reference {
      */
     String projections() default "";
 
+    /**
+     * If no projections are given, fetch only the fields the target class declares, plus the join keys
+     */
+    boolean autoProjection() default false;
+
     /**
      * If specified
      */
@@ -0,0 +1,15 @@
+package io.purchaise.mongolay.annotations;
+
+import java.lang.annotation.*;
+
+/**
+ * Marks the numeric version field of a model, used for optimistic concurrency.
+ * Updates only apply to the version they were read at, and increment it
+ */
+@Documented
+@Inherited
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.FIELD)
+public @interface Version {
+
+}
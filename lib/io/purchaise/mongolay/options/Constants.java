@@ -6,5 +6,13 @@ package io.purchaise.mongolay.options;
 public class Constants {
 	public static final String AGGREGATION = "aggregation";
 	public static final String FIELDS = "fields";
+	/**
+	 * The version of the options the materialized calculated fields of a document were computed with
+	 */
+	public static final String MATERIALIZED_VERSION = "_optionsVersion";
+	/**
+	 * The temporary copy of the stored fields overridden by calculated fields, while materializing
+	 */
+	public static final String MATERIALIZED_STASH = "_optionsStash";
 
 }
@@ -0,0 +1,350 @@
+package io.purchaise.mongolay.options;
+
+import com.mongodb.client.model.Aggregates;
+import io.purchaise.mongolay.utils.BoundedCache;
+import lombok.Getter;
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonString;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.BsonDocumentCodec;
+import org.bson.conversions.Bson;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * The stages computing the calculation options of a class, compiled once from its {@link FieldConfig}.
+ * The stages are encoded and immutable, such that they can be shared by every pipeline they are merged into.
+ * A pipeline only reading some calculated fields is merged with the stages of these fields and their dependencies.
+ *
+ * <p>When materialized, the calculated fields of the option field container are stored in the documents along with
+ * the version of the options they were computed with. The stages then read the stored values of the documents
+ * at the current version, and only compute the others.</p>
+ */
+public class OptionsPipeline {
+
+    /**
+     * The config the stages were compiled from, to tell whether they are stale
+     */
+    @Getter
+    private final FieldConfig source;
+
+    /**
+     * Whether the calculated fields are stored in the documents
+     */
+    @Getter
+    private final boolean materialized;
+
+    /**
+     * The version of the options, derived from the stages such that it changes along with them
+     */
+    @Getter
+    private final String version;
+
+    /**
+     * The update pipeline storing the calculated fields of a document, empty unless materialized
+     */
+    @Getter
+    private final List<Bson> materializeUpdate;
+
+    /**
+     * The $set stages of the calculated fields, followed by the $unset of the helper fields
+     */
+    @Getter
+    private final List<Bson> stages;
+
+    /**
+     * The root fields stored in the documents, which the stages leave untouched
+     */
+    @Getter
+    private final Set<String> storedFields;
+
+    /**
+     * The calculated fields set by each $set stage, with their computations
+     */
+    private final List<BsonDocument> setStages;
+
+    /**
+     * The calculated fields each calculated field depends on
+     */
+    private final Map<String, Set<String>> dependencies;
+
+    private final PredicatePushdown pushdown;
+
+    /**
+     * The stages computing the calculated fields read by a pipeline, by the paths the pipeline reads
+     */
+    private final BoundedCache<Set<String>, List<Bson>> selections = new BoundedCache<>(256);
+
+    private OptionsPipeline(FieldConfig source, boolean materialized, String version, List<Bson> materializeUpdate,
+                            List<Bson> stages, Set<String> storedFields, List<BsonDocument> setStages) {
+        this.source = source;
+        this.materialized = materialized;
+        this.version = version;
+        this.materializeUpdate = materializeUpdate;
+        this.stages = stages;
+        this.storedFields = storedFields;
+        this.setStages = setStages;
+        this.pushdown = new PredicatePushdown(storedFields);
+        this.dependencies = new HashMap<>();
+        Set<String> calculated = new HashSet<>();
+        for (BsonDocument stage : setStages) {
+            stage.forEach((field, computation) -> {
+                Set<String> paths = QueryFields.referencedPaths(computation);
+                this.dependencies.put(field, paths == null ? new HashSet<>(calculated) : OptionsPipeline.matching(paths, calculated, field));
+            });
+            calculated.addAll(stage.keySet());
+        }
+    }
+
+    /**
+     * Compiles the calculation options of a class into its stages, leaving the options untouched.
+     *
+     * @param options the calculation options of the class
+     * @param clazz   the class the options are defined for
+     * @return the compiled pipeline
+     */
+    public static OptionsPipeline compile(FieldConfig options, Class<?> clazz) {
+        return OptionsPipeline.compile(options, clazz, false);
+    }
+
+    /**
+     * Compiles the calculation options of a class into its stages, leaving the options untouched.
+     *
+     * @param options      the calculation options of the class
+     * @param clazz        the class the options are defined for
+     * @param materialized whether the calculated fields are stored in the documents
+     * @return the compiled pipeline
+     */
+    public static OptionsPipeline compile(FieldConfig options, Class<?> clazz, boolean materialized) {
+        Document combined = new Document(options.getConfig());
+        combined.putAll(options.getHelperConfig());
+
+        List<Bson> stages = new OptionsStagesBuilder().processOptions(combined, clazz);
+        Document helperConfigProcessed = OptionsUtils.adjustOptionFieldsAndReferences(options.getHelperConfig(), OptionsUtils.getOptionField(clazz), clazz);
+        if (!helperConfigProcessed.isEmpty()) {
+            stages.add(Aggregates.unset(helperConfigProcessed.keySet().toArray(new String[0])));
+        }
+
+        BsonDocumentCodec codec = new BsonDocumentCodec();
+        List<BsonDocument> documents = stages.stream().map(Bson::toBsonDocument).collect(Collectors.toList());
+        String optionField = OptionsUtils.getOptionField(clazz);
+        String version = OptionsPipeline.version(optionField, documents);
+        List<Bson> materializeUpdate = List.of();
+        if (materialized) {
+            materializeUpdate = OptionsPipeline.materializeUpdate(documents, optionField, version);
+            documents = OptionsPipeline.guard(documents, optionField, helperConfigProcessed.keySet(), version);
+        }
+        List<Bson> encoded = documents
+            .stream()
+            .map(stage -> new RawBsonDocument(stage, codec))
+            .collect(Collectors.toUnmodifiableList());
+
+        // the stored fields, but the ones the stages set or unset
+        Set<String> storedFields = new HashSet<>(OptionsUtils.getAllFieldsNames(clazz));
+        storedFields.add(io.purchaise.mongolay.Constants.ID_KEY);
+        for (BsonDocument stage : documents) {
+            BsonValue set = stage.get("$set");
+            if (set != null) {
+                set.asDocument().keySet().forEach(field -> storedFields.remove(OptionsPipeline.root(field)));
+            }
+            BsonValue unset = stage.get("$unset");
+            if (unset != null) {
+                (unset.isArray() ? unset.asArray().getValues() : List.of(unset))
+                    .forEach(field -> storedFields.remove(OptionsPipeline.root(field.asString().getValue())));
+            }
+        }
+        List<BsonDocument> setStages = documents
+            .stream()
+            .filter(stage -> stage.isDocument("$set"))
+            .map(stage -> stage.getDocument("$set"))
+            .collect(Collectors.toList());
+        return new OptionsPipeline(options, materialized, version, materializeUpdate, encoded, Collections.unmodifiableSet(storedFields), setStages);
+    }
+
+    private static String version(String optionField, List<BsonDocument> stages) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(optionField.getBytes(StandardCharsets.UTF_8));
+            stages.forEach(stage -> digest.update(stage.toJson().getBytes(StandardCharsets.UTF_8)));
+            byte[] hash = digest.digest();
+            StringBuilder version = new StringBuilder();
+            for (int i = 0; i < 8; i++) {
+                version.append(String.format("%02x", hash[i]));
+            }
+            return version.toString();
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static boolean isContained(String field, String optionField) {
+        return field.startsWith(optionField + ".");
+    }
+
+    /**
+     * Makes the stages read the stored values of the calculated fields in the container, for the documents at the given version.
+     * The helper fields are not stored, hence always computed. The stored version is unset along with them.
+     */
+    private static List<BsonDocument> guard(List<BsonDocument> stages, String optionField, Set<String> helpers, String version) {
+        BsonDocument current = new BsonDocument("$eq", new BsonArray(List.of(new BsonString("$" + Constants.MATERIALIZED_VERSION), new BsonString(version))));
+        List<BsonDocument> guarded = new ArrayList<>();
+        BsonArray unset = new BsonArray();
+        for (BsonDocument stage : stages) {
+            if (stage.isDocument("$set")) {
+                BsonDocument set = new BsonDocument();
+                stage.getDocument("$set").forEach((field, computation) -> set.put(field, !OptionsPipeline.isContained(field, optionField) || helpers.contains(field)
+                    ? computation
+                    : new BsonDocument("$cond", new BsonDocument("if", current).append("then", new BsonString("$" + field)).append("else", computation))));
+                guarded.add(new BsonDocument("$set", set));
+            } else if (stage.containsKey("$unset")) {
+                BsonValue fields = stage.get("$unset");
+                unset.addAll(fields.isArray() ? fields.asArray() : List.of(fields));
+            } else {
+                guarded.add(stage);
+            }
+        }
+        unset.add(new BsonString(Constants.MATERIALIZED_VERSION));
+        guarded.add(new BsonDocument("$unset", unset));
+        return guarded;
+    }
+
+    /**
+     * The update pipeline computing the calculated fields and storing the ones of the container, with the version.
+     * The calculated fields overriding stored fields are restored, as computing these again would not be idempotent.
+     */
+    private static List<Bson> materializeUpdate(List<BsonDocument> stages, String optionField, String version) {
+        List<String> overridden = stages.stream()
+            .filter(stage -> stage.isDocument("$set"))
+            .flatMap(stage -> stage.getDocument("$set").keySet().stream())
+            .filter(field -> !OptionsPipeline.isContained(field, optionField))
+            .collect(Collectors.toList());
+        BsonDocument stash = new BsonDocument();
+        BsonDocument restore = new BsonDocument();
+        for (int i = 0; i < overridden.size(); i++) {
+            String stashed = "$" + Constants.MATERIALIZED_STASH + ".f" + i;
+            stash.put("f" + i, new BsonString("$" + overridden.get(i)));
+            // a field missing before is removed again
+            BsonDocument missing = new BsonDocument("$eq", new BsonArray(List.of(new BsonDocument("$type", new BsonString(stashed)), new BsonString("missing"))));
+            restore.put(overridden.get(i), new BsonDocument("$cond", new BsonArray(List.of(missing, new BsonString("$$REMOVE"), new BsonString(stashed)))));
+        }
+
+        List<Bson> update = new ArrayList<>();
+        if (!overridden.isEmpty()) {
+            update.add(new BsonDocument("$set", new BsonDocument(Constants.MATERIALIZED_STASH, stash)));
+        }
+        update.addAll(stages);
+        if (!overridden.isEmpty()) {
+            update.add(new BsonDocument("$set", restore));
+            update.add(new BsonDocument("$unset", new BsonString(Constants.MATERIALIZED_STASH)));
+        }
+        update.add(new BsonDocument("$set", new BsonDocument(Constants.MATERIALIZED_VERSION, new BsonDocument("$literal", new BsonString(version)))));
+        return Collections.unmodifiableList(update);
+    }
+
+    /**
+     * @return the calculated fields, but the given one, read by any of the paths
+     */
+    private static Set<String> matching(Collection<String> paths, Collection<String> calculated, String except) {
+        Set<String> matching = new HashSet<>();
+        for (String field : calculated) {
+            if (field.equals(except)) {
+                continue;
+            }
+            for (String path : paths) {
+                if (path.equals(field) || path.startsWith(field + ".") || field.startsWith(path + ".")) {
+                    matching.add(field);
+                    break;
+                }
+            }
+        }
+        return matching;
+    }
+
+    private static String root(String field) {
+        int dot = field.indexOf('.');
+        return dot < 0 ? field : field.substring(0, dot);
+    }
+
+    /**
+     * Merges the stages with a pipeline, running the leading stages of the pipeline that only touch stored fields first.
+     *
+     * @param pipeline the pipeline
+     * @return the merged pipeline
+     * @see PredicatePushdown
+     */
+    public List<Bson> merge(List<? extends Bson> pipeline) {
+        return this.pushdown.rewrite(this.getStages(QueryFields.referencedPaths(pipeline)), pipeline);
+    }
+
+    /**
+     * Selects the stages computing the calculated fields read through the given paths, and the fields these depend on.
+     *
+     * @param paths the paths read, null to compute every calculated field
+     * @return the stages
+     * @see QueryFields
+     */
+    public List<Bson> getStages(Set<String> paths) {
+        if (paths == null) {
+            return this.stages;
+        }
+        return this.selections.computeIfAbsent(paths, this::selectStages);
+    }
+
+    private List<Bson> selectStages(Set<String> paths) {
+        // the transitive closure of the read calculated fields
+        Set<String> needed = new HashSet<>();
+        Deque<String> pending = new ArrayDeque<>(OptionsPipeline.matching(paths, this.dependencies.keySet(), null));
+        while (!pending.isEmpty()) {
+            String field = pending.pop();
+            if (needed.add(field)) {
+                pending.addAll(this.dependencies.get(field));
+            }
+        }
+        if (needed.size() == this.dependencies.size()) {
+            return this.stages;
+        }
+
+        BsonDocumentCodec codec = new BsonDocumentCodec();
+        List<Bson> selected = new ArrayList<>();
+        for (BsonDocument stage : this.setStages) {
+            BsonDocument set = new BsonDocument();
+            stage.forEach((field, computation) -> {
+                if (needed.contains(field)) {
+                    set.put(field, computation);
+                }
+            });
+            if (!set.isEmpty()) {
+                selected.add(new RawBsonDocument(new BsonDocument("$set", set), codec));
+            }
+        }
+        // the helper fields are unset whether computed or not
+        this.stages.stream()
+            .filter(stage -> stage.toBsonDocument().containsKey("$unset"))
+            .forEach(selected::add);
+        return Collections.unmodifiableList(selected);
+    }
+
+    /**
+     * @param options the current calculation options of the class
+     * @return whether the pipeline was compiled from these options
+     */
+    public boolean isCompiledFrom(FieldConfig options) {
+        return this.source == options;
+    }
+
+    /**
+     * @param options      the current calculation options of the class
+     * @param materialized whether the calculated fields are currently stored
+     * @return whether the pipeline was compiled from these options, in the same mode
+     */
+    public boolean isCompiledFrom(FieldConfig options, boolean materialized) {
+        return this.source == options && this.materialized == materialized;
+    }
+}
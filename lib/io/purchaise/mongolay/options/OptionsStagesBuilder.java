@@ -3,9 +3,7 @@ package io.purchaise.mongolay.options;
 import org.bson.Document;
 import org.bson.conversions.Bson;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
 import java.util.stream.Collectors;
 
 public class OptionsStagesBuilder {
@@ -13,24 +11,107 @@ public class OptionsStagesBuilder {
     /**
      * Creates a list of $set stages for MongoDB in the correct order based on field dependencies.
      * Fields that do not reference other fields are processed first, followed by fields that depend on previously processed fields.
+     * Each field is placed in the first stage after all of its dependencies, such that the number of stages is minimal.
      *
      * @param computations A Document containing field-value pairs, where values represent MongoDB computations.
      * @param clazz        The class type used for key processing.
      * @return A list of BSON $set stages.
+     * @throws IllegalArgumentException if calculated fields depend on each other in a cycle
      */
     public List<Bson> processOptions(Document computations, Class<?> clazz) {
         if (computations.isEmpty()) {
             return new ArrayList<>();
         }
+        return createSetStages(planStages(computations), clazz);
+    }
+
+    /**
+     * Layers the computations by their dependencies with Kahn's algorithm, in time linear to the size of the computations.
+     *
+     * @param computations A Document containing field-value pairs, where values represent MongoDB computations.
+     * @return The computations of each stage, keeping the order of the given computations within a stage.
+     * @throws IllegalArgumentException if calculated fields depend on each other in a cycle
+     */
+    public List<Document> planStages(Document computations) {
+        List<String> fields = new ArrayList<>(computations.keySet());
+        Map<String, Integer> indexes = new HashMap<>();
+        for (int i = 0; i < fields.size(); i++) {
+            indexes.put(fields.get(i), i);
+        }
+
+        // the fields depending on each field, and the number of dependencies of each field
+        List<List<Integer>> dependents = new ArrayList<>();
+        fields.forEach(field -> dependents.add(new ArrayList<>()));
+        int[] pending = new int[fields.size()];
+        for (int i = 0; i < fields.size(); i++) {
+            String field = fields.get(i);
+            for (String reference : getReferencedFields(computations.get(field))) {
+                Integer dependency = indexes.get(reference);
+                if (dependency != null && !reference.equals(field)) {
+                    dependents.get(dependency).add(i);
+                    pending[i]++;
+                }
+            }
+        }
 
-        List<Bson> stages = new ArrayList<>();
-        while (!computations.isEmpty()) {
-            Document previousStage = stages.isEmpty() ? new Document() : (Document) stages.get(stages.size() - 1);
-            Document currentStage = extractCurrentStage(computations, previousStage);
-            stages.add(currentStage);
-            computations = excludeProcessedFields(computations, currentStage);
+        List<Integer> layer = new ArrayList<>();
+        for (int i = 0; i < fields.size(); i++) {
+            if (pending[i] == 0) {
+                layer.add(i);
+            }
+        }
+        List<Document> stages = new ArrayList<>();
+        int planned = 0;
+        while (!layer.isEmpty()) {
+            Collections.sort(layer);
+            Document stage = new Document();
+            List<Integer> next = new ArrayList<>();
+            for (int index : layer) {
+                String field = fields.get(index);
+                stage.put(field, computations.get(field));
+                for (int dependent : dependents.get(index)) {
+                    if (--pending[dependent] == 0) {
+                        next.add(dependent);
+                    }
+                }
+            }
+            stages.add(stage);
+            planned += layer.size();
+            layer = next;
+        }
+
+        if (planned < fields.size()) {
+            List<String> cyclic = new ArrayList<>();
+            for (int i = 0; i < fields.size(); i++) {
+                if (pending[i] > 0) {
+                    cyclic.add(fields.get(i));
+                }
+            }
+            throw new IllegalArgumentException(String.format("The calculated fields %s can not be computed, their dependencies form a cycle", cyclic));
+        }
+        return stages;
+    }
+
+    /**
+     * Retrieves the root fields referenced by a computation, skipping literals.
+     *
+     * @param value The computation.
+     * @return The referenced root fields, in order of appearance.
+     */
+    public Set<String> getReferencedFields(Object value) {
+        Set<String> references = new LinkedHashSet<>();
+        collectReferencedFields(value, references);
+        return references;
+    }
+
+    private void collectReferencedFields(Object value, Set<String> references) {
+        if (value instanceof Document && !((Document) value).containsKey("$literal")) {
+            ((Document) value).values().forEach(element -> collectReferencedFields(element, references));
+        } else if (value instanceof List) {
+            ((List<?>) value).forEach(element -> collectReferencedFields(element, references));
+        } else if (value instanceof String && ((String) value).startsWith("$")) {
+            references.add(((String) value).substring(1).split("\\.")[0]);
         }
-        return createSetStages(stages, clazz);
     }
 
     /**
@@ -40,10 +121,12 @@ public class OptionsStagesBuilder {
      * @param clazz  The class type used for key processing.
      * @return A list of BSON $set stages.
      */
-    private List<Bson> createSetStages(List<Bson> stages, Class<?> clazz) {
+    private List<Bson> createSetStages(List<Document> stages, Class<?> clazz) {
+        String optionField = OptionsUtils.getOptionField(clazz);
+        List<String> classFields = OptionsUtils.getAllFieldsNames(clazz);
         return stages
             .stream()
-            .map(stage -> OptionsUtils.adjustOptionFieldsAndReferences((Document) stage, OptionsUtils.getOptionField(clazz), clazz))
+            .map(stage -> OptionsUtils.adjustOptionFieldsAndReferences(stage, optionField, classFields))
             .map(stage -> new Document("$set", stage))
             .collect(Collectors.toList());
     }
@@ -57,7 +140,9 @@ public class OptionsStagesBuilder {
      * @param allFields       A Document containing all computations.
      * @param processedFields A Document containing already processed fields.
      * @return True if the field can be computed with current dependencies, false otherwise.
+     * @deprecated no longer used to build the stages, {@link #planStages(Document)} layers all the computations at once
      */
+    @Deprecated
     public boolean isComputable(String field, Object value, Document allFields, Document processedFields) {
         if (value instanceof Document && !((Document) value).containsKey("$literal")) {
             return ((Document) value)
@@ -77,44 +162,4 @@ public class OptionsStagesBuilder {
         return true;
     }
 
-    /**
-     * Extracts fields that can be computed in the current stage based on their dependencies.
-     *
-     * @param remainingFields A Document of fields yet to be processed.
-     * @param processedFields A Document of fields already processed.
-     * @return A Document containing fields computable in the current stage.
-     */
-    private Document extractCurrentStage(Document remainingFields, Document processedFields) {
-        return remainingFields
-            .entrySet()
-            .stream()
-            .filter(entry -> isComputable(entry.getKey(), entry.getValue(), remainingFields, processedFields))
-            .collect(Collectors.toMap(
-                Map.Entry::getKey,
-                Map.Entry::getValue,
-                (oldValue, newValue) -> oldValue,
-                Document::new
-            ));
-    }
-
-    /**
-     * Excludes fields that have been processed from the remaining fields.
-     *
-     * @param remainingFields The original Document of remaining fields.
-     * @param processedFields The Document containing fields that have been processed.
-     * @return A Document containing fields that still need processing.
-     */
-    private Document excludeProcessedFields(Document remainingFields, Document processedFields) {
-        return remainingFields
-            .entrySet()
-            .stream()
-            .filter(entry -> !processedFields.containsKey(entry.getKey()))
-            .collect(Collectors.toMap(
-                Map.Entry::getKey,
-                Map.Entry::getValue,
-                (oldValue, newValue) -> oldValue,
-                Document::new
-            ));
-    }
-
 }
@@ -1,6 +1,5 @@
 package io.purchaise.mongolay.options;
 
-import com.mongodb.client.model.Aggregates;
 import io.purchaise.mongolay.MongoRelay;
 import io.purchaise.mongolay.RelayDatabase;
 import io.purchaise.mongolay.annotations.OptionField;
@@ -172,20 +171,22 @@ public class OptionsUtils {
             return processedPipeline;
         }
 
-        // Merge calculation options if available
-        FieldConfig options = OptionsUtils.getCalculationOptions(database, clazz);
-        Document combined = options.getConfig();
-        combined.putAll(options.getHelperConfig());
-
-        // Process the given class options into a pipeline
-        List<Bson> optionsPipeline = new OptionsStagesBuilder().processOptions(combined, clazz);
-        Document helperConfigProcessed = OptionsUtils.adjustOptionFieldsAndReferences(options.getHelperConfig(), OptionsUtils.getOptionField(clazz), clazz);
-        if (!helperConfigProcessed.isEmpty()) {
-            optionsPipeline.add(Aggregates.unset(helperConfigProcessed.keySet().toArray(new String[0])));
-        }
+        // Combine the options pipeline with the processed pipeline with lookups,
+        // the filters on stored fields running ahead of the calculations
+        return OptionsUtils.getOptionsPipeline(database, clazz).merge(processedPipeline);
+    }
 
-        // Combine the options pipeline with the processed pipeline with lookups
-        return Stream.concat(optionsPipeline.stream(), processedPipeline.stream()).collect(Collectors.toList());
+    /**
+     * Retrieves the compiled calculation options of the given class, compiled once per options of the relay.
+     *
+     * @param database the RelayDatabase which contains both the MongoRelay and the source class
+     * @param clazz the class of the options
+     * @return the compiled options pipeline
+     */
+    public static OptionsPipeline getOptionsPipeline(RelayDatabase<?> database, Class<?> clazz) {
+        FieldConfig options = OptionsUtils.getCalculationOptions(database, clazz);
+        MongoRelay relay = database.getMongoRelay();
+        return relay != null ? relay.getOptionsPipeline(clazz, options) : OptionsPipeline.compile(options, clazz);
     }
 
     /**
@@ -197,7 +198,18 @@ public class OptionsUtils {
      * @return A new Document with adjusted field names and values.
      */
     public static Document adjustOptionFieldsAndReferences(Document document, String optionField, Class<?> clazz) {
-        List<String> classFields = OptionsUtils.getAllFieldsNames(clazz);
+        return OptionsUtils.adjustOptionFieldsAndReferences(document, optionField, OptionsUtils.getAllFieldsNames(clazz));
+    }
+
+    /**
+     * Adjusts field names and references within a document, prefixing fields with the option field if they are not standard class fields.
+     *
+     * @param document    The input document containing fields and values.
+     * @param optionField The prefix to use for non-standard fields.
+     * @param classFields The standard fields of the class.
+     * @return A new Document with adjusted field names and values.
+     */
+    public static Document adjustOptionFieldsAndReferences(Document document, String optionField, List<String> classFields) {
         return document.entrySet().stream()
             .map(entry -> {
                 String key = entry.getKey();
@@ -226,7 +238,7 @@ public class OptionsUtils {
         if (classFields.contains(rootField) || optionField.isEmpty()) {
             return key;
         }
-        return String.format("%s.%s", optionField, key);
+        return optionField + "." + key;
     }
 
     /**
@@ -258,7 +270,7 @@ public class OptionsUtils {
             if (classFields.contains(rootRefField)) {
                 return value;
             }
-            return String.format("$%s.%s", optionField, refField);
+            return "$" + optionField + "." + refField;
         }
         return Optional.ofNullable(value).orElse(new BsonNull());
     }
@@ -0,0 +1,166 @@
+package io.purchaise.mongolay.options;
+
+import org.bson.BsonArray;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.conversions.Bson;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Rewrites a pipeline merged with calculation options, such that the stages of the pipeline only touching stored fields
+ * run ahead of the calculation stages. Filters then reduce the documents before the calculations and can use indexes.
+ *
+ * <p>The calculation stages only set and unset fields, never changing the number or the order of the documents,
+ * hence the leading stages of the pipeline are moved ahead of them as long as:</p>
+ * <ul>
+ *     <li>the conditions of a $match only reference stored fields, the other conditions stay after the calculations</li>
+ *     <li>a $sort only references stored fields, and no sort stayed after the calculations</li>
+ *     <li>a $skip or $limit follows no filter or sort that stayed after the calculations</li>
+ * </ul>
+ * <p>Stages only reshaping the documents ($project, $set, $unset, $lookup) stay in place and stop the $match and $sort
+ * from being moved, as these could then reference the reshaped fields. The first other stage stops the rewrite.</p>
+ */
+public class PredicatePushdown {
+    private static final Set<String> RESHAPING_STAGES = Set.of("$project", "$set", "$addFields", "$unset", "$lookup");
+    private static final Set<String> DOCUMENT_VARIABLES = Set.of("ROOT", "CURRENT");
+
+    private final Set<String> storedFields;
+
+    /**
+     * @param storedFields the root fields stored in the documents and left untouched by the calculation stages
+     */
+    public PredicatePushdown(Set<String> storedFields) {
+        this.storedFields = storedFields;
+    }
+
+    /**
+     * Merges the calculation stages with the pipeline, moving the leading stages of the pipeline ahead of them when possible.
+     *
+     * @param optionsStages the calculation stages
+     * @param pipeline      the pipeline
+     * @return the merged pipeline
+     */
+    public List<Bson> rewrite(List<Bson> optionsStages, List<? extends Bson> pipeline) {
+        List<Bson> pushed = new ArrayList<>();
+        List<Bson> remaining = new ArrayList<>();
+        boolean filtered = false;
+        boolean sorted = false;
+        boolean reshaped = false;
+
+        int next = 0;
+        for (; next < pipeline.size(); next++) {
+            Bson stage = pipeline.get(next);
+            BsonDocument document = stage.toBsonDocument();
+            String operator = document.size() == 1 ? document.getFirstKey() : "";
+            if (operator.equals("$match") && !reshaped) {
+                BsonDocument filter = document.getDocument(operator);
+                List<BsonValue> stored = new ArrayList<>();
+                List<BsonValue> calculated = new ArrayList<>();
+                this.splitConditions(filter, stored, calculated);
+                if (calculated.isEmpty()) {
+                    pushed.add(stage);
+                } else if (stored.isEmpty()) {
+                    remaining.add(stage);
+                    filtered = true;
+                } else {
+                    pushed.add(PredicatePushdown.match(stored));
+                    remaining.add(PredicatePushdown.match(calculated));
+                    filtered = true;
+                }
+            } else if (operator.equals("$sort") && !reshaped && !sorted
+                    && document.getDocument(operator).keySet().stream().allMatch(this::isStored)) {
+                pushed.add(stage);
+            } else if (operator.equals("$sort")) {
+                remaining.add(stage);
+                sorted = true;
+            } else if ((operator.equals("$skip") || operator.equals("$limit")) && !filtered && !sorted) {
+                pushed.add(stage);
+            } else if (RESHAPING_STAGES.contains(operator)) {
+                remaining.add(stage);
+                reshaped = true;
+            } else {
+                break;
+            }
+        }
+
+        List<Bson> merged = new ArrayList<>(pushed.size() + optionsStages.size() + pipeline.size());
+        merged.addAll(pushed);
+        merged.addAll(optionsStages);
+        merged.addAll(remaining);
+        merged.addAll(pipeline.subList(next, pipeline.size()));
+        return merged;
+    }
+
+    /**
+     * Splits the conditions of a filter, flattening its $and, into the ones only referencing stored fields and the others.
+     */
+    private void splitConditions(BsonDocument filter, List<BsonValue> stored, List<BsonValue> calculated) {
+        for (String key : filter.keySet()) {
+            BsonValue value = filter.get(key);
+            if (key.equals("$and") && value.isArray()) {
+                for (BsonValue condition : value.asArray()) {
+                    if (condition.isDocument()) {
+                        this.splitConditions(condition.asDocument(), stored, calculated);
+                    } else {
+                        calculated.add(new BsonDocument(key, new BsonArray(List.of(condition))));
+                    }
+                }
+                continue;
+            }
+            BsonDocument condition = new BsonDocument(key, value);
+            if (this.isStoredCondition(key, value)) {
+                stored.add(condition);
+            } else {
+                calculated.add(condition);
+            }
+        }
+    }
+
+    private boolean isStoredCondition(String key, BsonValue value) {
+        switch (key) {
+            case "$and":
+            case "$or":
+            case "$nor":
+                return value.isArray() && value.asArray().stream()
+                    .allMatch(condition -> condition.isDocument() && condition.asDocument().entrySet().stream()
+                        .allMatch(entry -> this.isStoredCondition(entry.getKey(), entry.getValue())));
+            case "$expr":
+                return this.isStoredExpression(value);
+            case "$text":
+            case "$comment":
+                return true;
+            default:
+                return !key.startsWith("$") && this.isStored(key);
+        }
+    }
+
+    private boolean isStoredExpression(BsonValue value) {
+        if (value.isDocument()) {
+            BsonDocument document = value.asDocument();
+            return document.containsKey("$literal") || document.values().stream().allMatch(this::isStoredExpression);
+        }
+        if (value.isArray()) {
+            return value.asArray().stream().allMatch(this::isStoredExpression);
+        }
+        if (value.isString() && value.asString().getValue().startsWith("$$")) {
+            String variable = value.asString().getValue().substring(2).split("\\.")[0];
+            return !DOCUMENT_VARIABLES.contains(variable);
+        }
+        if (value.isString() && value.asString().getValue().startsWith("$")) {
+            return this.isStored(value.asString().getValue().substring(1));
+        }
+        return true;
+    }
+
+    private boolean isStored(String path) {
+        return storedFields.contains(path.split("\\.")[0]);
+    }
+
+    private static Bson match(List<BsonValue> conditions) {
+        BsonDocument filter = conditions.size() == 1 ? conditions.get(0).asDocument() : new BsonDocument("$and", new BsonArray(conditions));
+        return new BsonDocument("$match", filter);
+    }
+}
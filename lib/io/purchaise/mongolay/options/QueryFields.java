@@ -0,0 +1,172 @@
+package io.purchaise.mongolay.options;
+
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.conversions.Bson;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Finds the fields of the documents a pipeline reads, up to its first inclusion projection, after which no other field survives.
+ *
+ * <p>The stages read through are $match, $sort, $skip, $limit, $lookup, $set, $addFields, $unset and exclusion projections.
+ * Any other stage, a reference to the whole document, a $where or a $jsonSchema may read any field,
+ * as does a pipeline without an inclusion projection.</p>
+ */
+public class QueryFields {
+    private static final Set<String> DOCUMENT_VARIABLES = Set.of("ROOT", "CURRENT");
+
+    /**
+     * The paths read, null once any field may be read
+     */
+    private Set<String> paths = new HashSet<>();
+
+    private QueryFields() {}
+
+    /**
+     * @param pipeline the pipeline
+     * @return the paths of the fields read by the pipeline, null if it may read any field
+     */
+    public static Set<String> referencedPaths(List<? extends Bson> pipeline) {
+        QueryFields fields = new QueryFields();
+        for (Bson stage : pipeline) {
+            BsonDocument document = stage.toBsonDocument();
+            if (document.size() != 1) {
+                return null;
+            }
+            String operator = document.getFirstKey();
+            BsonValue value = document.get(operator);
+            switch (operator) {
+                case "$match":
+                    fields.addQuery(value);
+                    break;
+                case "$sort":
+                    value.asDocument().keySet().forEach(fields::addPath);
+                    break;
+                case "$skip":
+                case "$limit":
+                case "$unset":
+                    break;
+                case "$set":
+                case "$addFields":
+                    value.asDocument().values().forEach(fields::addExpression);
+                    break;
+                case "$lookup":
+                    BsonDocument lookup = value.asDocument();
+                    if (lookup.isString("localField")) {
+                        fields.addPath(lookup.getString("localField").getValue());
+                    }
+                    if (lookup.isDocument("let")) {
+                        lookup.getDocument("let").values().forEach(fields::addExpression);
+                    }
+                    break;
+                case "$project":
+                    if (fields.addProjection(value.asDocument())) {
+                        return fields.paths;
+                    }
+                    break;
+                default:
+                    return null;
+            }
+            if (fields.paths == null) {
+                return null;
+            }
+        }
+        // without an inclusion projection every field is returned
+        return null;
+    }
+
+    /**
+     * @param expression an aggregation expression
+     * @return the paths of the fields read by the expression, null if it reads the whole document
+     */
+    public static Set<String> referencedPaths(BsonValue expression) {
+        QueryFields fields = new QueryFields();
+        fields.addExpression(expression);
+        return fields.paths;
+    }
+
+    /**
+     * @return whether the projection is an inclusion, the last stage to read through
+     */
+    private boolean addProjection(BsonDocument projection) {
+        boolean inclusion = projection.entrySet().stream()
+            .anyMatch(entry -> !entry.getKey().equals("_id") && !QueryFields.isExclusion(entry.getValue()));
+        if (!inclusion) {
+            return false;
+        }
+        projection.forEach((key, value) -> {
+            if (!QueryFields.isExclusion(value)) {
+                this.addPath(key);
+                this.addExpression(value);
+            }
+        });
+        return true;
+    }
+
+    private static boolean isExclusion(BsonValue value) {
+        return (value.isNumber() && value.asNumber().intValue() == 0) || (value.isBoolean() && !value.asBoolean().getValue());
+    }
+
+    private void addQuery(BsonValue query) {
+        if (!query.isDocument()) {
+            return;
+        }
+        query.asDocument().forEach((key, value) -> {
+            switch (key) {
+                case "$and":
+                case "$or":
+                case "$nor":
+                    if (value.isArray()) {
+                        value.asArray().forEach(this::addQuery);
+                    }
+                    break;
+                case "$expr":
+                    this.addExpression(value);
+                    break;
+                case "$where":
+                case "$jsonSchema":
+                    this.paths = null;
+                    break;
+                default:
+                    if (!key.startsWith("$")) {
+                        this.addPath(key);
+                    }
+            }
+        });
+    }
+
+    private void addExpression(BsonValue value) {
+        if (this.paths == null) {
+            return;
+        }
+        if (value.isDocument()) {
+            BsonDocument document = value.asDocument();
+            if (!document.containsKey("$literal")) {
+                document.values().forEach(this::addExpression);
+            }
+        } else if (value.isArray()) {
+            value.asArray().forEach(this::addExpression);
+        } else if (value.isString() && value.asString().getValue().startsWith("$$")) {
+            String variable = value.asString().getValue().substring(2);
+            int dot = variable.indexOf('.');
+            if (DOCUMENT_VARIABLES.contains(dot < 0 ? variable : variable.substring(0, dot))) {
+                if (dot < 0) {
+                    this.paths = null;
+                } else {
+                    this.addPath(variable.substring(dot + 1));
+                }
+            }
+        } else if (value.isString() && value.asString().getValue().startsWith("$")) {
+            this.addPath(value.asString().getValue().substring(1));
+        }
+    }
+
+    private void addPath(String path) {
+        if (this.paths != null) {
+            this.paths.add(path);
+        }
+    }
+}
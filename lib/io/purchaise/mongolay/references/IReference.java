@@ -3,9 +3,11 @@ package io.purchaise.mongolay.references;
 
 import io.purchaise.mongolay.MongoRelay;
 
+import java.lang.reflect.Field;
 import java.util.Collection;
 
 public interface IReference {
+    Field getField();
     <A extends Collection<? super TResult>, TResult> A map(A item, MongoRelay mongoRelay);
     boolean isValid();
 }
@@ -0,0 +1,85 @@
+package io.purchaise.mongolay.references;
+
+import org.bson.conversions.Bson;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Request scoped first level cache of the referenced documents, keyed by (collection, _id, depth).
+ * A document fetched with a projection is only served to the references fetching it with the same projection,
+ * and a document is only served at the depth it was mapped at, as its nested references depend on it.
+ * Attached to a Mongo Relay and shared with all its copies, such that within one unit of work
+ * each referenced document is fetched and decoded at most once per depth.
+ */
+public class IdentityMap {
+    private final Map<String, Map<Object, Map<Integer, ProjectedDocument>>> collections = new ConcurrentHashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param collection the collection name
+     * @param id the _id of the document
+     * @param depth the depth of the relay mapping the document
+     * @return the document already fetched within this unit of work, or null
+     */
+    public Object get(String collection, Object id, int depth) {
+        return this.get(collection, id, depth, null);
+    }
+
+    /**
+     * @param collection the collection name
+     * @param id the _id of the document
+     * @param depth the depth of the relay mapping the document
+     * @param projection the projection the document is fetched with, null for the full document
+     * @return the document already fetched within this unit of work at the same depth with the same projection, or null
+     */
+    public Object get(String collection, Object id, int depth, Bson projection) {
+        Map<Object, Map<Integer, ProjectedDocument>> documents = collections.get(collection);
+        Map<Integer, ProjectedDocument> depths = documents != null ? documents.get(id) : null;
+        ProjectedDocument found = depths != null ? depths.get(depth) : null;
+        if (found == null || !found.covers(projection)) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return found.getDocument();
+    }
+
+    public void put(String collection, Object id, int depth, Object document) {
+        this.put(collection, id, depth, null, document);
+    }
+
+    public void put(String collection, Object id, int depth, Bson projection, Object document) {
+        if (id == null || document == null) {
+            return;
+        }
+        collections.computeIfAbsent(collection, key -> new ConcurrentHashMap<>())
+            .computeIfAbsent(id, key -> new ConcurrentHashMap<>())
+            .put(depth, new ProjectedDocument(projection, document));
+    }
+
+    public void remove(String collection, Object id) {
+        Map<Object, Map<Integer, ProjectedDocument>> documents = collections.get(collection);
+        if (documents != null && id != null) {
+            documents.remove(id);
+        }
+    }
+
+    public void clear(String collection) {
+        collections.remove(collection);
+    }
+
+    public void clear() {
+        collections.clear();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+}
@@ -3,10 +3,10 @@ package io.purchaise.mongolay.references;
 
 import io.purchaise.mongolay.MongoRelay;
 import io.purchaise.mongolay.utils.ClassUtils;
+import io.purchaise.mongolay.utils.FieldAccessor;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.ToString;
-import org.apache.commons.lang3.reflect.FieldUtils;
 import java.lang.reflect.Field;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -24,14 +24,10 @@ public class InnerReferenceField implements IReference {
     Class<?>[] subclasses;
 
     public Object getValue (Object item) {
-        try {
-            return FieldUtils.readField(field, item, true);
-        } catch (NullPointerException e) {
-            return null;
-        } catch (IllegalAccessException e) {
-            e.printStackTrace();
+        if (item == null) {
             return null;
         }
+        return FieldAccessor.of(field).get(item);
     }
     /**
      * The core of the Mongo Relay Library, does the mapping based on annotations at targeted value
@@ -0,0 +1,21 @@
+package io.purchaise.mongolay.references;
+
+import lombok.Value;
+import org.bson.conversions.Bson;
+
+/**
+ * A cached referenced document, along with the projection it was fetched with
+ */
+@Value
+class ProjectedDocument {
+    Bson projection;
+    Object document;
+
+    /**
+     * @param projection the projection of the reference looking the document up
+     * @return whether this document can be served to the reference, full documents serve any projection
+     */
+    boolean covers(Bson projection) {
+        return this.projection == null || this.projection.equals(projection);
+    }
+}
@@ -0,0 +1,226 @@
+package io.purchaise.mongolay.references;
+
+import com.mongodb.client.MongoChangeStreamCursor;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import io.purchaise.mongolay.Constants;
+import io.purchaise.mongolay.annotations.Entity;
+import io.purchaise.mongolay.utils.BoundedCache;
+import io.purchaise.mongolay.utils.ExecutorUtils;
+import lombok.Value;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.Codec;
+import org.bson.codecs.configuration.CodecConfigurationException;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.conversions.Bson;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process wide second level cache of the referenced documents, keyed by (collection, _id).
+ * A document fetched with a projection is only served to the references fetching it with the same projection.
+ * Only entities annotated with {@link Entity#cache()} or registered through {@link #withEntity(Class)} are cached,
+ * and only when no access control applies on the referenced collection.
+ * Entities with references of their own are never cached, as their nested references depend on the roles
+ * and the depth of the relay mapping them.
+ * Entries are bounded in number and age, and are evicted on writes going through a relay collection
+ * or, optionally, on the changes observed by {@link #watch(MongoCollection)}.
+ * The documents are stored encoded, each lookup decodes its own copy. Relays sharing a cache
+ * should share the same options, as the computed fields are part of the cached documents.
+ */
+public class ReferenceCache {
+    private final BoundedCache<Key, ProjectedDocument> documents;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final Set<Class<?>> entities = ConcurrentHashMap.newKeySet();
+
+    @Value
+    private static class Key {
+        String collection;
+        Object id;
+    }
+
+    @Value
+    private static class EncodedDocument {
+        RawBsonDocument document;
+        Codec<Object> codec;
+
+        Object decode() {
+            return document.decode(codec);
+        }
+    }
+
+    /**
+     * @param maxSize the maximum number of cached documents
+     * @param ttl the time to live of a cached document
+     * @param unit the unit of the time to live
+     */
+    public ReferenceCache(int maxSize, long ttl, TimeUnit unit) {
+        this.documents = new BoundedCache<>(maxSize, ttl, unit);
+    }
+
+    /**
+     * Caches the given entity regardless of its annotation
+     * @param clazz the entity class
+     * @return this cache
+     */
+    public ReferenceCache withEntity(Class<?> clazz) {
+        entities.add(clazz);
+        return this;
+    }
+
+    /**
+     * @param clazz the referenced class
+     * @return whether the documents of the class are cached
+     */
+    public boolean isCacheable(Class<?> clazz) {
+        if (!ReferenceRegistry.discover(clazz).isEmpty()) {
+            return false;
+        }
+        if (entities.contains(clazz)) {
+            return true;
+        }
+        Entity entity = clazz.getAnnotation(Entity.class);
+        return entity != null && entity.cache();
+    }
+
+    public Object get(String collection, Object id) {
+        return this.get(collection, id, null);
+    }
+
+    /**
+     * @param collection the collection name
+     * @param id the _id of the document
+     * @param projection the projection the document is fetched with, null for the full document
+     * @return a copy of the cached document fetched with the same projection, or null
+     */
+    public Object get(String collection, Object id, Bson projection) {
+        ProjectedDocument found = documents.get(new Key(collection, id));
+        if (found == null || !found.covers(projection)) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return ((EncodedDocument) found.getDocument()).decode();
+    }
+
+    public void put(String collection, Object id, Object document, CodecRegistry registry) {
+        this.put(collection, id, null, document, registry);
+    }
+
+    /**
+     * Caches a copy of the document, encoded with the codec of its class
+     * @param collection the collection name
+     * @param id the _id of the document
+     * @param projection the projection the document is fetched with, null for the full document
+     * @param document the document
+     * @param registry the codec registry of the collection
+     */
+    @SuppressWarnings("unchecked")
+    public void put(String collection, Object id, Bson projection, Object document, CodecRegistry registry) {
+        if (id == null || document == null) {
+            return;
+        }
+        EncodedDocument encoded;
+        try {
+            Codec<Object> codec = (Codec<Object>) registry.get(document.getClass());
+            encoded = new EncodedDocument(new RawBsonDocument(document, codec), codec);
+        } catch (CodecConfigurationException ignore) {
+            // documents the collection can not encode are not cached
+            return;
+        }
+        documents.put(new Key(collection, id), new ProjectedDocument(projection, encoded));
+    }
+
+    public void evict(String collection, Object id) {
+        documents.remove(new Key(collection, id));
+    }
+
+    public void evict(String collection) {
+        documents.removeIf(key -> key.getCollection().equals(collection));
+    }
+
+    public void clear() {
+        documents.clear();
+    }
+
+    /**
+     * Evicts the documents changed on the given collection, including the writes that do not go through the relay.
+     * The change stream is consumed on the shared relay executor until the returned cursor is closed.
+     * If the stream fails, the whole collection is evicted since later changes can no longer be observed.
+     * @param collection the watched collection, requires a replica set or a sharded cluster
+     * @return the cursor of the change stream, close it to stop watching
+     */
+    public MongoChangeStreamCursor<? extends ChangeStreamDocument<?>> watch(MongoCollection<?> collection) {
+        String name = collection.getNamespace().getCollectionName();
+        MongoChangeStreamCursor<? extends ChangeStreamDocument<?>> cursor = collection.watch().cursor();
+        ExecutorUtils.sharedExecutor().execute(() -> {
+            try {
+                while (cursor.hasNext()) {
+                    this.invalidate(name, cursor.next());
+                }
+            } catch (RuntimeException ignore) {
+                // the cursor was closed or the stream can not be resumed
+            } finally {
+                this.evict(name);
+            }
+        });
+        return cursor;
+    }
+
+    private void invalidate(String collection, ChangeStreamDocument<?> change) {
+        BsonDocument key = change.getDocumentKey();
+        Object id = key != null ? this.toId(key.get(Constants.ID_KEY)) : null;
+        if (id == null) {
+            // drops, renames and unknown keys
+            this.evict(collection);
+            return;
+        }
+        this.evict(collection, id);
+    }
+
+    private Object toId(BsonValue value) {
+        if (value == null) {
+            return null;
+        }
+        switch (value.getBsonType()) {
+            case OBJECT_ID:
+                return value.asObjectId().getValue();
+            case STRING:
+                return value.asString().getValue();
+            case INT32:
+                return value.asInt32().getValue();
+            case INT64:
+                return value.asInt64().getValue();
+            default:
+                return null;
+        }
+    }
+
+    public int size() {
+        return documents.size();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return documents.getEvictions();
+    }
+
+    public double getHitRatio() {
+        long hits = this.getHits();
+        long total = hits + this.getMisses();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+}
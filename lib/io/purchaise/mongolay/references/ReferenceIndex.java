@@ -0,0 +1,108 @@
+package io.purchaise.mongolay.references;
+
+import io.purchaise.mongolay.FieldReference;
+
+import java.util.*;
+
+/**
+ * A keyed index over the fetched referenced values, built once per batch.
+ * Replaces comparing every source against every fetched target, while keeping the same matching rules:
+ * <ul>
+ *     <li>dynamic sources or targets match everything</li>
+ *     <li>a null source matches only targets with a null value</li>
+ *     <li>a null target matches any non null source</li>
+ *     <li>collections on either side match when they share at least one value</li>
+ * </ul>
+ */
+class ReferenceIndex {
+    private final List<Object> targets;
+    private final List<FieldIndex> indexes = new ArrayList<>();
+
+    ReferenceIndex(List<Object> targets, List<FieldReference> references) {
+        this.targets = targets;
+        for (FieldReference reference : references) {
+            if (reference.hasDynamicSource() || reference.hasDynamicTarget()) {
+                // matches everything, no need to index it
+                continue;
+            }
+            indexes.add(new FieldIndex(reference, targets));
+        }
+    }
+
+    /**
+     * Finds all the targets that match the given source, in the order they were fetched
+     * @param source the source item
+     * @return the matching targets
+     */
+    List<Object> find(Object source) {
+        BitSet matches = null;
+        for (FieldIndex index : indexes) {
+            BitSet next = index.find(source);
+            if (matches == null) {
+                matches = next;
+            } else {
+                matches.and(next);
+            }
+            if (matches.isEmpty()) {
+                return new ArrayList<>();
+            }
+        }
+        if (matches == null) {
+            return new ArrayList<>(targets);
+        }
+        List<Object> found = new ArrayList<>(matches.cardinality());
+        for (int i = matches.nextSetBit(0); i >= 0; i = matches.nextSetBit(i + 1)) {
+            found.add(targets.get(i));
+        }
+        return found;
+    }
+
+    private static class FieldIndex {
+        private final FieldReference reference;
+        private final Map<Object, BitSet> byValue = new HashMap<>();
+        private final BitSet nullTargets = new BitSet();
+
+        FieldIndex(FieldReference reference, List<Object> targets) {
+            this.reference = reference;
+            for (int i = 0; i < targets.size(); i++) {
+                Object value = reference.getTargetValue(targets.get(i));
+                if (value == null) {
+                    nullTargets.set(i);
+                } else if (value instanceof Collection) {
+                    for (Object element : (Collection<?>) value) {
+                        this.add(element, i);
+                    }
+                } else {
+                    this.add(value, i);
+                }
+            }
+        }
+
+        private void add(Object value, int position) {
+            byValue.computeIfAbsent(value, key -> new BitSet()).set(position);
+        }
+
+        BitSet find(Object source) {
+            Object value = reference.getValue(source);
+            BitSet result = (BitSet) nullTargets.clone();
+            if (value == null) {
+                return result;
+            }
+            if (value instanceof Collection) {
+                for (Object element : (Collection<?>) value) {
+                    this.or(result, element);
+                }
+                return result;
+            }
+            this.or(result, value);
+            return result;
+        }
+
+        private void or(BitSet result, Object value) {
+            BitSet found = byValue.get(value);
+            if (found != null) {
+                result.or(found);
+            }
+        }
+    }
+}
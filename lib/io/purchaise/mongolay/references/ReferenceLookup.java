@@ -0,0 +1,111 @@
+package io.purchaise.mongolay.references;
+
+import io.purchaise.mongolay.Constants;
+import io.purchaise.mongolay.FieldReference;
+import io.purchaise.mongolay.MongoRelay;
+import io.purchaise.mongolay.RelayDatabase;
+import io.purchaise.mongolay.utils.ClassUtils;
+import io.purchaise.mongolay.utils.TextUtils;
+import lombok.Getter;
+import org.bson.Document;
+import org.bson.codecs.pojo.annotations.BsonIgnore;
+import org.bson.conversions.Bson;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Translates the references of a class into $lookup stages, such that they are resolved by the aggregation itself.
+ * Only single field references on the same database are translated, the others stay with the client side mapper.
+ * References to access controlled collections are never translated, as the lookup would read them unfiltered
+ */
+@Getter
+public class ReferenceLookup {
+    /**
+     * The stages to append to the aggregation pipeline
+     */
+    private final List<Bson> stages = new ArrayList<>();
+    /**
+     * The references resolved by the stages, which the client side mapper must skip
+     */
+    private final List<IReference> references = new ArrayList<>();
+
+    /**
+     * Builds the lookup stages of the given result class
+     * @param database the database the aggregation runs on
+     * @param clazz the result class of the aggregation
+     * @param strategy the reference strategy of the query
+     * @return the lookup, empty unless the strategy is {@link ReferenceStrategy#LOOKUP}
+     */
+    public static ReferenceLookup of(RelayDatabase<?> database, Class<?> clazz, ReferenceStrategy strategy) {
+        ReferenceLookup lookup = new ReferenceLookup();
+        MongoRelay relay = database.getMongoRelay();
+        if (strategy != ReferenceStrategy.LOOKUP || !relay.mapsReferences(clazz)) {
+            return lookup;
+        }
+        for (IReference reference : ReferenceRegistry.discover(clazz)) {
+            if (!(reference instanceof ReferencedField)) {
+                continue;
+            }
+            ReferencedField referencedField = (ReferencedField) reference;
+            if (ReferenceLookup.isTranslatable(database, clazz, referencedField)) {
+                lookup.add(relay, referencedField);
+            }
+        }
+        return lookup;
+    }
+
+    private static boolean isTranslatable(RelayDatabase<?> database, Class<?> clazz, ReferencedField reference) {
+        // references declared on other subclasses, or that the codec would not decode
+        if (!reference.getClazz().isAssignableFrom(clazz) || reference.getField().isAnnotationPresent(BsonIgnore.class)) {
+            return false;
+        }
+        if (!reference.isValid() || reference.isMultipleFieldReference() || !TextUtils.isNullOrEmpty(reference.getTargetCollection())) {
+            return false;
+        }
+        FieldReference fieldReference = reference.getReferencesList().get(0);
+        MongoRelay relay = database.getMongoRelay();
+        if (fieldReference.hasDynamicSource() || fieldReference.hasDynamicTarget() || relay.getReferenceFields().containsKey(fieldReference.getFormattedSource())) {
+            return false;
+        }
+        Class<?> target = reference.getTargetClass();
+        if (ClassUtils.isDynamicEntity(target)) {
+            return false;
+        }
+        RelayDatabase<?> targetDatabase = relay.on(target);
+        if (relay.isAccessControlled(target, targetDatabase.getCollectionName())) {
+            return false;
+        }
+        return targetDatabase.getMongoDatabase() != null && targetDatabase.getName().equals(database.getName());
+    }
+
+    private void add(MongoRelay relay, ReferencedField reference) {
+        FieldReference fieldReference = reference.getReferencesList().get(0);
+        Class<?> target = reference.getTargetClass();
+        String as = FieldReference.getMongoClass(reference.getField());
+        String foreignField = fieldReference.getMongoTarget(target);
+
+        List<Bson> pipeline = new ArrayList<>();
+        if (!Constants.ID_KEY.equals(foreignField)) {
+            // a missing local value would otherwise match the documents missing the foreign field
+            pipeline.add(new Document("$match", new Document(foreignField, new Document("$ne", null))));
+        }
+        if (reference.getProjection() != null) {
+            pipeline.add(new Document("$project", reference.getProjection()));
+        }
+
+        Document lookup = new Document("from", relay.on(target).getCollectionName())
+            .append("localField", fieldReference.getMongoSource(reference.getClazz()))
+            .append("foreignField", foreignField);
+        if (!pipeline.isEmpty()) {
+            lookup.append("pipeline", pipeline);
+        }
+        lookup.append("as", as);
+
+        stages.add(new Document("$lookup", lookup));
+        if (!reference.isCollectionField()) {
+            stages.add(new Document("$addFields", new Document(as, new Document("$first", String.format("$%s", as)))));
+        }
+        references.add(reference);
+    }
+}
@@ -0,0 +1,134 @@
+package io.purchaise.mongolay.references;
+
+import io.purchaise.mongolay.FieldReference;
+import io.purchaise.mongolay.annotations.Entity;
+import io.purchaise.mongolay.annotations.Reference;
+import io.purchaise.mongolay.annotations.SubClasses;
+import org.apache.commons.lang3.reflect.FieldUtils;
+import org.reflections.Reflections;
+
+import java.lang.reflect.Field;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Process wide registry of the reference graph of each class.
+ * The annotations of a class are scanned only once, the resulting list of references is immutable
+ * and shared between all the Mongo Relay instances.
+ */
+public class ReferenceRegistry {
+    private static final Map<Class<?>, List<IReference>> references = new ConcurrentHashMap<>();
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+
+    private ReferenceRegistry() {}
+
+    /**
+     * Returns the references discovered for the given class, scanning the class only on the first call
+     * @param clazz the class to discover
+     * @return an immutable list of references
+     */
+    public static List<IReference> discover(Class<?> clazz) {
+        List<IReference> found = references.get(clazz);
+        if (found != null) {
+            hits.incrementAndGet();
+            return found;
+        }
+        misses.incrementAndGet();
+        // computed outside of the map, sub classes are discovered recursively through the registry itself
+        List<IReference> computed = Collections.unmodifiableList(scan(clazz));
+        List<IReference> previous = references.putIfAbsent(clazz, computed);
+        return previous != null ? previous : computed;
+    }
+
+    /**
+     * Discovers the references of the given classes ahead of time, useful on application startup
+     * @param classes the classes to warm up
+     */
+    public static void warmUp(Class<?>... classes) {
+        for (Class<?> clazz : classes) {
+            discover(clazz);
+        }
+    }
+
+    /**
+     * Discovers the references of all the classes annotated with {@link Entity} in the given package
+     * @param directory the package to scan
+     * @return the number of classes warmed up
+     */
+    public static int warmUp(String directory) {
+        Set<Class<?>> annotated = new Reflections(directory).getTypesAnnotatedWith(Entity.class)
+                .stream()
+                .filter(next -> !next.isAnonymousClass())
+                .collect(Collectors.toSet());
+        annotated.forEach(ReferenceRegistry::discover);
+        return annotated.size();
+    }
+
+    /**
+     * @return the classes for which the references have been discovered so far
+     */
+    public static Set<Class<?>> getClasses() {
+        return Collections.unmodifiableSet(references.keySet());
+    }
+
+    public static long getHits() {
+        return hits.get();
+    }
+
+    public static long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Removes all the discovered references and resets the counters
+     */
+    public static void clear() {
+        references.clear();
+        hits.set(0);
+        misses.set(0);
+    }
+
+    private static List<IReference> scan(Class<?> clazz) {
+        List<Field> referencedFields = FieldUtils.getFieldsListWithAnnotation(clazz, Reference.class);
+        List<IReference> result = referencedFields
+                .stream()
+                .map(next -> scan(next, clazz))
+                .filter(IReference::isValid)
+                .collect(Collectors.toList());
+
+        SubClasses subClasses = clazz.getDeclaredAnnotation(SubClasses.class);
+        if (subClasses != null) {
+            List<IReference> subs = Arrays.stream(subClasses.of())
+                    .map(ReferenceRegistry::discover)
+                    .flatMap(Collection::stream)
+                    .collect(Collectors.toList());
+            result.addAll(subs);
+        }
+        return result;
+    }
+
+    private static IReference scan(Field next, Class<?> clazz) {
+        Reference annotation = next.getAnnotation(Reference.class);
+        if (!annotation.nested()) {
+            ReferencedField referencedField = new ReferencedField();
+            referencedField.setClazz(clazz);
+            referencedField.setField(next);
+            referencedField.setProjections(annotation.projections());
+            referencedField.setAutoProjection(annotation.autoProjection());
+            referencedField.setTargetCollection(annotation.collection());
+            String[] from = annotation.from();
+            String[] to = annotation.to();
+            for (int i = 0; i < from.length; i++) {
+                referencedField.addReference(new FieldReference(from[i], to[i]));
+            }
+            referencedField.setReferencesList(Collections.unmodifiableList(referencedField.getReferencesList()));
+            // parsed once, as the registered references are shared by all the mappings
+            referencedField.setProjection(referencedField.buildProjection());
+            return referencedField;
+        }
+        return new InnerReferenceField(clazz, next, annotation.subclasses());
+    }
+}
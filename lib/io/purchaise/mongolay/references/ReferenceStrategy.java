@@ -0,0 +1,16 @@
+package io.purchaise.mongolay.references;
+
+/**
+ * How the references of the aggregation results are resolved
+ */
+public enum ReferenceStrategy {
+    /**
+     * The results are brought back to the client, which then queries the references of each level
+     */
+    CLIENT,
+    /**
+     * The eligible references are resolved within the aggregation through $lookup stages, in one round trip.
+     * The others, as well as the nested references of the looked up documents, are still mapped by the client
+     */
+    LOOKUP
+}
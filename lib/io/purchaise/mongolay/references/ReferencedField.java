@@ -1,25 +1,27 @@
 package io.purchaise.mongolay.references;
 
 
-import com.mongodb.client.FindIterable;
 import com.mongodb.client.model.Filters;
+import io.purchaise.mongolay.Constants;
 import io.purchaise.mongolay.FieldReference;
 import io.purchaise.mongolay.MongoRelay;
 import io.purchaise.mongolay.RelayDatabase;
 import io.purchaise.mongolay.RelayFindIterable;
+import io.purchaise.mongolay.options.OptionsUtils;
 import io.purchaise.mongolay.utils.ClassUtils;
+import io.purchaise.mongolay.utils.FieldAccessor;
 import io.purchaise.mongolay.utils.TextUtils;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.RequiredArgsConstructor;
 import lombok.ToString;
-import org.apache.commons.lang3.reflect.FieldUtils;
 import org.bson.Document;
 import org.bson.conversions.Bson;
 
 import java.lang.reflect.Field;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Objects;
 import java.util.stream.Collectors;
@@ -35,6 +37,11 @@ public class ReferencedField implements IReference {
     String projections;
     List<FieldReference> referencesList = new ArrayList<>();
     String targetCollection;
+    boolean autoProjection;
+    /**
+     * The projection applied on every reference query, null fetches the full documents
+     */
+    Document projection;
 
     public void addReference(FieldReference reference) {
         referencesList.add(reference);
@@ -52,6 +59,53 @@ public class ReferencedField implements IReference {
         return ClassUtils.getTargetClass(field);
     }
 
+    /**
+     * Parses the projections of the reference, or derives them from the target class in auto projection mode.
+     * The join keys are always kept, as the fetched documents are assigned back by them
+     * @return the projection, or null if the full documents are fetched
+     */
+    public Document buildProjection () {
+        Document projection = null;
+        if (!TextUtils.isNullOrEmpty(projections)) {
+            try {
+                projection = Document.parse(projections);
+            } catch (Exception ignore) {
+                return null;
+            }
+        } else if (autoProjection) {
+            projection = new Document(Constants.ID_KEY, 1);
+            for (String name : OptionsUtils.getAllFieldsNames(this.getTargetClass())) {
+                projection.put(name, 1);
+            }
+        }
+        if (projection == null || projection.isEmpty()) {
+            return null;
+        }
+        boolean inclusion = projection.entrySet()
+            .stream()
+            .anyMatch(next -> !Constants.ID_KEY.equals(next.getKey()) && ReferencedField.isIncluded(next.getValue()));
+        for (FieldReference reference : referencesList) {
+            String key = reference.getMongoTarget(this.getTargetClass());
+            if (inclusion) {
+                projection.put(key, 1);
+            } else {
+                projection.remove(key);
+            }
+        }
+        return projection.isEmpty() ? null : projection;
+    }
+
+    private static boolean isIncluded (Object value) {
+        if (value instanceof Boolean) {
+            return (Boolean) value;
+        }
+        if (value instanceof Number) {
+            return ((Number) value).intValue() != 0;
+        }
+        // expressions and literals project a value
+        return value != null;
+    }
+
     /**
      * The core of the Mongo Relay Library, does the mapping based on annotations at targeted value
      * @param item
@@ -64,23 +118,19 @@ public class ReferencedField implements IReference {
         if (items.size() == 0) {
             return item;
         }
-        // The assign part!
+        // The assign part! Index the fetched values once, then look up the matches of each source
+        ReferenceIndex index = new ReferenceIndex(new ArrayList<>(items), this.getReferencesList());
         for (Object source: item) {
             if (!clazz.isAssignableFrom(source.getClass())) {
                 continue;
             }
-            // find the one value that matches at the resulted values
-            Collection<Object> found = items.stream()
-                    .filter(target -> this.getReferencesList().stream().allMatch((next) -> this.match(source, target, next)))
-                    .collect(Collectors.toList());
-            try {
-                if (this.isCollectionField()) {
-                    FieldUtils.writeField(source, this.getField().getName(), found, true);
-                } else if (found.size() > 0) {
-                    FieldUtils.writeField(source, this.getField().getName(), found.iterator().next(), true);
-                }
-            } catch (IllegalAccessException e) {
-                e.printStackTrace();
+            // find the values that match at the resulted values
+            List<Object> found = index.find(source);
+            FieldAccessor accessor = FieldAccessor.of(source.getClass(), this.getField().getName());
+            if (this.isCollectionField()) {
+                accessor.set(source, found);
+            } else if (found.size() > 0) {
+                accessor.set(source, found.get(0));
             }
         }
         return item;
@@ -91,37 +141,6 @@ public class ReferencedField implements IReference {
         return referencesList.size() > 0;
     }
 
-    private boolean match (Object source, Object target, FieldReference next) {
-        if(next.hasDynamicSource() || next.hasDynamicTarget()) {
-            return true;
-        }
-        Object sourceValue = next.getValue(source);
-        if (sourceValue == null) {
-            return next.getTargetValue(target) == null;
-        }
-        Object targetValue = next.getTargetValue(target);
-        if (targetValue == null) {
-            return true;
-        }
-        if (sourceValue instanceof Collection) {
-            Collection sourceCollection = (Collection) sourceValue;
-
-            if (targetValue instanceof Collection) {
-                Collection targetCollection = (Collection) targetValue;
-                return targetCollection.stream().anyMatch(sourceCollection::contains);
-            }
-            // Check if source was a list,
-            // then matches if one of the values is within
-            return sourceCollection.contains(targetValue);
-        }
-
-        if (targetValue instanceof Collection) {
-            Collection targetCollection = (Collection) targetValue;
-            return targetCollection.contains(sourceValue);
-        }
-        return targetValue.equals(sourceValue);
-    }
-
     /**
      * The core of the Mongo Relay Library, does the mapping based on annotations at targeted value
      * @param item
@@ -175,15 +194,73 @@ public class ReferencedField implements IReference {
         if (database.getMongoDatabase() == null) {
             return items;
         }
-        FindIterable<?> findIterable = database.getCollection().find();
         String field = fieldReference.getMongoTarget(getTargetClass());
         if (fieldReference.hasDynamicTarget()) {
             Object value = relay.getReferenceFields().get(field);
-            findIterable.filter(this.filterFrom(field, value)).into(items);
-        } else {
-            Bson filter = values.size() == 1 ? Filters.eq(field, values.get(0)) : Filters.in(field, values);
-            findIterable.filter(filter).into(items);
+            this.project(database.getCollection().find().filter(this.filterFrom(field, value))).into(items);
+            return items;
+        }
+        if (Constants.ID_KEY.equals(field)) {
+            IdentityMap identityMap = relay.getIdentityMap();
+            ReferenceCache cache = relay.getReferenceCache();
+            // the shared cache is bypassed whenever the referenced documents are subject to access control
+            // or hold references of their own
+            if (cache != null && (!cache.isCacheable(referencedClass) || relay.isAccessControlled(referencedClass, database.getCollectionName()))) {
+                cache = null;
+            }
+            if (identityMap != null || cache != null) {
+                return this.findReferenceValues(database, fieldReference, values, identityMap, cache);
+            }
+        }
+        this.project(database.getCollection().find().filter(this.filterIn(field, values))).into(items);
+        return items;
+    }
+
+    /**
+     * Finds the referenced documents by their _id, looking them up in the identity map of the unit of work first,
+     * then in the shared cache, and only querying the ones found in neither
+     * @param database the referenced database
+     * @param fieldReference the field reference
+     * @param values the referenced _id values
+     * @param identityMap the identity map of the unit of work, or null
+     * @param cache the shared reference cache, or null
+     * @return the referenced documents
+     */
+    private Collection<Object> findReferenceValues (RelayDatabase<?> database, FieldReference fieldReference, List<Object> values, IdentityMap identityMap, ReferenceCache cache) {
+        String collection = database.getCollectionName();
+        // the fetched documents are mapped at the depth of the relay
+        int depth = database.getMongoRelay().getDepth();
+        Collection<Object> items = new ArrayList<>();
+        List<Object> missing = new ArrayList<>();
+        for (Object value : new LinkedHashSet<>(values)) {
+            Object found = identityMap != null ? identityMap.get(collection, value, depth, projection) : null;
+            if (found == null && cache != null) {
+                found = cache.get(collection, value, projection);
+                if (found != null && identityMap != null) {
+                    identityMap.put(collection, value, depth, projection, found);
+                }
+            }
+            if (found != null) {
+                items.add(found);
+            } else {
+                missing.add(value);
+            }
+        }
+        if (missing.isEmpty()) {
+            return items;
+        }
+        Collection<Object> fetched = new ArrayList<>();
+        this.project(database.getCollection().find().filter(this.filterIn(Constants.ID_KEY, missing))).into(fetched);
+        for (Object next : fetched) {
+            Object id = fieldReference.getTargetValue(next);
+            if (identityMap != null) {
+                identityMap.put(collection, id, depth, projection, next);
+            }
+            if (cache != null) {
+                cache.put(collection, id, projection, next, database.getCollection().getCodecRegistry());
+            }
         }
+        items.addAll(fetched);
         return items;
     }
 
@@ -219,18 +296,19 @@ public class ReferencedField implements IReference {
             db = relay.on(targetCollection, referencedClass);
         }
 
-        RelayFindIterable<?, ?> relayFindIterable = db
-                .getCollection()
-                .find()
-                .filter(Filters.or(filters));
+        this.project(db.getCollection().find().filter(Filters.or(filters))).into(items);
+        return items;
+    }
 
-        if (!TextUtils.isNullOrEmpty(projections)) {
-            try {
-                relayFindIterable.projection(Document.parse(projections));
-            } catch (Exception ignore) {}
+    private <TDocument, TResult> RelayFindIterable<TDocument, TResult> project (RelayFindIterable<TDocument, TResult> iterable) {
+        if (projection != null) {
+            iterable.projection(projection);
         }
-        relayFindIterable.into(items);
-        return items;
+        return iterable;
+    }
+
+    private Bson filterIn (String field, List<Object> values) {
+        return values.size() == 1 ? Filters.eq(field, values.get(0)) : Filters.in(field, values);
     }
 
     private Bson filterFrom (String field, Object value) {
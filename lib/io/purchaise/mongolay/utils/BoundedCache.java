@@ -0,0 +1,166 @@
+package io.purchaise.mongolay.utils;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * A thread safe cache bounded in size, evicting the least recently used entries,
+ * with an optional time to live counted from the moment an entry was written.
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+public class BoundedCache<K, V> {
+	private final int maxSize;
+	private final long ttlNanos;
+	private final LinkedHashMap<K, CachedValue<V>> entries;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	/**
+	 * Creates a cache without expiration
+	 * @param maxSize the maximum number of entries
+	 */
+	public BoundedCache(int maxSize) {
+		this(maxSize, 0, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * @param maxSize the maximum number of entries
+	 * @param ttl the time to live of an entry, 0 never expires
+	 * @param unit the unit of the time to live
+	 */
+	public BoundedCache(int maxSize, long ttl, TimeUnit unit) {
+		if (maxSize < 1) {
+			throw new IllegalArgumentException("The cache size must be positive");
+		}
+		this.maxSize = maxSize;
+		this.ttlNanos = unit.toNanos(ttl);
+		this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<K, CachedValue<V>> eldest) {
+				if (size() > BoundedCache.this.maxSize) {
+					evictions.incrementAndGet();
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	public V get(K key) {
+		synchronized (entries) {
+			CachedValue<V> entry = entries.get(key);
+			if (entry == null) {
+				misses.incrementAndGet();
+				return null;
+			}
+			if (this.isExpired(entry)) {
+				entries.remove(key);
+				evictions.incrementAndGet();
+				misses.incrementAndGet();
+				return null;
+			}
+			hits.incrementAndGet();
+			return entry.value;
+		}
+	}
+
+	/**
+	 * Returns the cached value, computing and caching it when absent.
+	 * The value is computed while holding the cache lock, keep the computation cheap.
+	 * @param key the key
+	 * @param compute computes the value of a missing key
+	 * @return the value
+	 */
+	public V computeIfAbsent(K key, Function<K, V> compute) {
+		synchronized (entries) {
+			V found = this.get(key);
+			if (found != null) {
+				return found;
+			}
+			V value = compute.apply(key);
+			this.put(key, value);
+			return value;
+		}
+	}
+
+	public void put(K key, V value) {
+		if (key == null || value == null) {
+			return;
+		}
+		synchronized (entries) {
+			entries.put(key, new CachedValue<>(value, System.nanoTime()));
+		}
+	}
+
+	public void remove(K key) {
+		synchronized (entries) {
+			entries.remove(key);
+		}
+	}
+
+	public void removeIf(Predicate<K> predicate) {
+		synchronized (entries) {
+			Iterator<K> keys = entries.keySet().iterator();
+			while (keys.hasNext()) {
+				if (predicate.test(keys.next())) {
+					keys.remove();
+				}
+			}
+		}
+	}
+
+	public void clear() {
+		synchronized (entries) {
+			entries.clear();
+		}
+	}
+
+	public int size() {
+		synchronized (entries) {
+			return entries.size();
+		}
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	/**
+	 * @return the ratio of lookups served from the cache, 0 if nothing was looked up yet
+	 */
+	public double getHitRatio() {
+		long hits = this.getHits();
+		long total = hits + this.getMisses();
+		return total == 0 ? 0 : (double) hits / total;
+	}
+
+	private boolean isExpired(CachedValue<V> entry) {
+		return ttlNanos > 0 && System.nanoTime() - entry.written > ttlNanos;
+	}
+
+	private static class CachedValue<V> {
+		private final V value;
+		private final long written;
+
+		private CachedValue(V value, long written) {
+			this.value = value;
+			this.written = written;
+		}
+	}
+}
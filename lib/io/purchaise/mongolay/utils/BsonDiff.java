@@ -0,0 +1,55 @@
+package io.purchaise.mongolay.utils;
+
+import org.bson.BsonDocument;
+import org.bson.BsonString;
+import org.bson.BsonValue;
+
+import java.util.Map;
+
+/**
+ * Computes the update turning a document into another, as $set and $unset operations.
+ * Embedded documents are compared field by field, arrays and other values are set as a whole when they differ
+ */
+public class BsonDiff {
+	public static final String SET = "$set";
+	public static final String UNSET = "$unset";
+
+	private BsonDiff() {}
+
+	/**
+	 * @param before the document as stored
+	 * @param after the document to store
+	 * @return the update, empty when both documents are equal
+	 */
+	public static BsonDocument diff(BsonDocument before, BsonDocument after) {
+		BsonDocument set = new BsonDocument();
+		BsonDocument unset = new BsonDocument();
+		BsonDiff.diff("", before, after, set, unset);
+		BsonDocument update = new BsonDocument();
+		if (!set.isEmpty()) {
+			update.put(SET, set);
+		}
+		if (!unset.isEmpty()) {
+			update.put(UNSET, unset);
+		}
+		return update;
+	}
+
+	private static void diff(String prefix, BsonDocument before, BsonDocument after, BsonDocument set, BsonDocument unset) {
+		for (Map.Entry<String, BsonValue> entry : after.entrySet()) {
+			String path = prefix + entry.getKey();
+			BsonValue previous = before.get(entry.getKey());
+			BsonValue value = entry.getValue();
+			if (previous != null && previous.isDocument() && value.isDocument()) {
+				BsonDiff.diff(path + ".", previous.asDocument(), value.asDocument(), set, unset);
+			} else if (!value.equals(previous)) {
+				set.put(path, value);
+			}
+		}
+		for (String key : before.keySet()) {
+			if (!after.containsKey(key)) {
+				unset.put(prefix + key, new BsonString(""));
+			}
+		}
+	}
+}
@@ -0,0 +1,42 @@
+package io.purchaise.mongolay.utils;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ExecutorUtils {
+
+	/**
+	 * Shared executor for blocking relay work, created on first use
+	 */
+	private static class Holder {
+		private static final ExecutorService EXECUTOR = ExecutorUtils.newBlockingExecutor("mongolay");
+	}
+
+	public static ExecutorService sharedExecutor() {
+		return Holder.EXECUTOR;
+	}
+
+	/**
+	 * Creates an executor suited for blocking IO, using virtual threads when the running JVM supports them
+	 * and falling back to a cached pool of daemon threads otherwise
+	 * @param name the prefix of the thread names
+	 * @return the executor
+	 */
+	public static ExecutorService newBlockingExecutor(String name) {
+		try {
+			Object executor = Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+			return (ExecutorService) executor;
+		} catch (ReflectiveOperationException ignore) {
+			// virtual threads are not available on this JVM
+		}
+		AtomicInteger counter = new AtomicInteger();
+		ThreadFactory factory = runnable -> {
+			Thread thread = new Thread(runnable, String.format("%s-%d", name, counter.incrementAndGet()));
+			thread.setDaemon(true);
+			return thread;
+		};
+		return Executors.newCachedThreadPool(factory);
+	}
+}
@@ -0,0 +1,112 @@
+package io.purchaise.mongolay.utils;
+
+import lombok.Getter;
+import org.apache.commons.lang3.reflect.FieldUtils;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Getter and setter of a field compiled once into method handles and cached per (class, field).
+ * Used on the mapping hot paths instead of resolving and reading the field reflectively on every object.
+ */
+public class FieldAccessor {
+	private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+	private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+	private static final ClassValue<Map<String, Optional<FieldAccessor>>> accessors = new ClassValue<>() {
+		@Override
+		protected Map<String, Optional<FieldAccessor>> computeValue(Class<?> type) {
+			return new ConcurrentHashMap<>();
+		}
+	};
+
+	@Getter
+	private final Field field;
+	private final MethodHandle getter;
+	private final MethodHandle setter;
+
+	private FieldAccessor(Field field) throws IllegalAccessException {
+		field.setAccessible(true);
+		MethodHandles.Lookup lookup = MethodHandles.lookup();
+		this.field = field;
+		this.getter = lookup.unreflectGetter(field).asType(GETTER_TYPE);
+		boolean writable = !Modifier.isFinal(field.getModifiers()) && !Modifier.isStatic(field.getModifiers());
+		this.setter = writable ? lookup.unreflectSetter(field).asType(SETTER_TYPE) : null;
+	}
+
+	/**
+	 * Returns the accessor for the field with the given name, searching the class hierarchy the same way as
+	 * {@link FieldUtils#getField(Class, String, boolean)}
+	 * @param clazz the class holding the field
+	 * @param name the name of the field
+	 * @return the accessor, or null if no such field exists
+	 */
+	public static FieldAccessor of(Class<?> clazz, String name) {
+		Map<String, Optional<FieldAccessor>> fields = accessors.get(clazz);
+		Optional<FieldAccessor> accessor = fields.get(name);
+		if (accessor == null) {
+			accessor = fields.computeIfAbsent(name, key -> Optional.ofNullable(FieldUtils.getField(clazz, name, true)).map(FieldAccessor::compile));
+		}
+		return accessor.orElse(null);
+	}
+
+	/**
+	 * Returns the accessor for the given field
+	 * @param field the field
+	 * @return the accessor
+	 */
+	public static FieldAccessor of(Field field) {
+		FieldAccessor accessor = FieldAccessor.of(field.getDeclaringClass(), field.getName());
+		if (accessor != null && accessor.getField().equals(field)) {
+			return accessor;
+		}
+		return FieldAccessor.compile(field);
+	}
+
+	/**
+	 * Reads the value of the field on the given target
+	 * @param target the object holding the field
+	 * @return the value
+	 */
+	public Object get(Object target) {
+		try {
+			return (Object) getter.invokeExact(target);
+		} catch (RuntimeException | Error e) {
+			throw e;
+		} catch (Throwable e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Writes the value of the field on the given target
+	 * @param target the object holding the field
+	 * @param value the value to write
+	 */
+	public void set(Object target, Object value) {
+		if (setter == null) {
+			throw new IllegalStateException(String.format("Field %s cannot be written", field.getName()));
+		}
+		try {
+			setter.invokeExact(target, value);
+		} catch (RuntimeException | Error e) {
+			throw e;
+		} catch (Throwable e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static FieldAccessor compile(Field field) {
+		try {
+			return new FieldAccessor(field);
+		} catch (IllegalAccessException e) {
+			throw new IllegalArgumentException(String.format("Field %s is not accessible", field.getName()), e);
+		}
+	}
+}
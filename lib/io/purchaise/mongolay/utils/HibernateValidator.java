@@ -2,22 +2,107 @@ package io.purchaise.mongolay.utils;
 
 import io.purchaise.mongolay.Http;
 import io.purchaise.mongolay.RelayException;
+import io.purchaise.mongolay.annotations.Entity;
+import org.reflections.Reflections;
 
 import javax.validation.ConstraintViolation;
 import javax.validation.Validation;
 import javax.validation.Validator;
-import java.util.List;
-import java.util.Set;
+import javax.validation.ValidatorFactory;
+import java.util.*;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 public class HibernateValidator {
+	/**
+	 * Building the factory bootstraps the whole provider, it is built once and shared, validators are thread safe
+	 */
+	private static ValidatorFactory factory;
+	private static volatile Validator validator;
+
+	private static final LongAdder validations = new LongAdder();
+	private static final LongAdder validationNanos = new LongAdder();
+
+	/**
+	 * @return the shared validator, built on first use. Only the first use takes the lock
+	 */
+	public static Validator getValidator() {
+		Validator found = validator;
+		if (found != null) {
+			return found;
+		}
+		synchronized (HibernateValidator.class) {
+			if (validator == null) {
+				factory = Validation.buildDefaultValidatorFactory();
+				validator = factory.getValidator();
+			}
+			return validator;
+		}
+	}
+
+	/**
+	 * Builds the constraint metadata of all entities of the given package, such that the first requests do not pay for it
+	 * @param packageName the package to scan for entities
+	 * @return the number of warmed up entities
+	 */
+	public static int warmUp(String packageName) {
+		Validator validator = HibernateValidator.getValidator();
+		Set<Class<?>> entities = new Reflections(packageName).getTypesAnnotatedWith(Entity.class);
+		entities.forEach(validator::getConstraintsForClass);
+		return entities.size();
+	}
+
+	/**
+	 * Closes the shared factory, the next validation builds a new one
+	 */
+	public static synchronized void close() {
+		if (factory != null) {
+			factory.close();
+		}
+		factory = null;
+		validator = null;
+	}
 
 	public static <T> Set<ConstraintViolation<T>> apply(T t) {
-		Validator validator = Validation.buildDefaultValidatorFactory().getValidator();
-		return validator.validate(t);
+		long start = System.nanoTime();
+		try {
+			return HibernateValidator.getValidator().validate(t);
+		} finally {
+			validationNanos.add(System.nanoTime() - start);
+			validations.increment();
+		}
+	}
+
+	/**
+	 * Validates the items on the common fork join pool
+	 * @param items the items
+	 * @return the violations of the invalid items, keyed by their position
+	 */
+	public static <T> Map<Integer, Set<ConstraintViolation<T>>> applyAll(List<T> items) {
+		return HibernateValidator.applyAll(items, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Validates the items on the given fork join pool
+	 * @param items the items
+	 * @param pool the pool running the validations
+	 * @return the violations of the invalid items, keyed by their position
+	 */
+	public static <T> Map<Integer, Set<ConstraintViolation<T>>> applyAll(List<T> items, ForkJoinPool pool) {
+		List<Set<ConstraintViolation<T>>> violations = pool.submit(() -> items.parallelStream()
+				.map(HibernateValidator::apply)
+				.collect(Collectors.toList())
+		).join();
+		Map<Integer, Set<ConstraintViolation<T>>> errors = new TreeMap<>();
+		IntStream.range(0, violations.size())
+				.filter(i -> !violations.get(i).isEmpty())
+				.forEach(i -> errors.put(i, violations.get(i)));
+		return errors;
 	}
 
 	public static <T> T validate(T t) throws RelayException {
@@ -28,6 +113,22 @@ public class HibernateValidator {
 		return t;
 	}
 
+	/**
+	 * Validates the items in parallel, failing with the errors of all invalid items at once
+	 * @param items the items
+	 * @return the items
+	 * @throws RelayException bad request, with the messages of each invalid item keyed by its position
+	 */
+	public static <T, C extends Collection<T>> C validateAll(C items) throws RelayException {
+		Map<Integer, Set<ConstraintViolation<T>>> errors = HibernateValidator.applyAll(new ArrayList<>(items));
+		if (errors.size() != 0) {
+			Map<String, Object> messages = new LinkedHashMap<>();
+			errors.forEach((index, violations) -> messages.put(String.valueOf(index), HibernateValidator.formatErrors(violations)));
+			throw new RelayException(Http.Status.BAD_REQUEST, messages);
+		}
+		return items;
+	}
+
 	public static <T> boolean isValid(T t) {
 		return HibernateValidator.apply(t).size() == 0;
 	}
@@ -55,4 +156,28 @@ public class HibernateValidator {
 				.map(err -> err.getPropertyPath().toString())
 				.collect(Collectors.toList());
 	}
+
+	/**
+	 * @return the number of validated objects
+	 */
+	public static long getValidations() {
+		return validations.sum();
+	}
+
+	/**
+	 * @return the total time spent validating, in nanoseconds
+	 */
+	public static long getValidationNanos() {
+		return validationNanos.sum();
+	}
+
+	public static double getAverageValidationNanos() {
+		long count = HibernateValidator.getValidations();
+		return count == 0 ? 0 : (double) HibernateValidator.getValidationNanos() / count;
+	}
+
+	public static void resetMetrics() {
+		validations.reset();
+		validationNanos.reset();
+	}
 }
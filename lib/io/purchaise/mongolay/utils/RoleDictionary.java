@@ -0,0 +1,45 @@
+package io.purchaise.mongolay.utils;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Process wide dictionary of the roles, mapping each role to a dense int such that role sets are kept as bitsets.
+ * Only the roles of the users are interned, the roles read from the access lists of the documents are only looked up,
+ * so the dictionary is bounded by the number of distinct user roles
+ */
+public class RoleDictionary {
+	private static final Map<String, Integer> ids = new ConcurrentHashMap<>();
+	private static final AtomicInteger next = new AtomicInteger();
+
+	private RoleDictionary() {}
+
+	/**
+	 * @param role the role
+	 * @return the id of the role, assigned on first use
+	 */
+	public static int intern(String role) {
+		Integer id = ids.get(role);
+		if (id != null) {
+			return id;
+		}
+		return ids.computeIfAbsent(role, key -> next.getAndIncrement());
+	}
+
+	/**
+	 * @param role the role
+	 * @return the id of the role, or -1 when it was never interned
+	 */
+	public static int find(String role) {
+		if (role == null) {
+			return -1;
+		}
+		Integer id = ids.get(role);
+		return id != null ? id : -1;
+	}
+
+	public static int size() {
+		return ids.size();
+	}
+}
@@ -0,0 +1,79 @@
+package io.purchaise.mongolay.utils;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Immutable set of user roles kept as a bitset over the {@link RoleDictionary}.
+ * Checking an access list costs one lookup per entry, instead of one contains per user role and entry
+ */
+public class RoleSet {
+	private static final int SCAN_ROLES = 2;
+
+	private final List<String> roles;
+	private final BitSet bits = new BitSet();
+	// null roles can not be interned, they only match null access list entries
+	private final boolean nullRole;
+
+	private RoleSet(Collection<String> roles) {
+		this.roles = Collections.unmodifiableList(new ArrayList<>(roles));
+		boolean nullRole = false;
+		for (String role : this.roles) {
+			if (role == null) {
+				nullRole = true;
+				continue;
+			}
+			bits.set(RoleDictionary.intern(role));
+		}
+		this.nullRole = nullRole;
+	}
+
+	public static RoleSet of(Collection<String> roles) {
+		return new RoleSet(roles);
+	}
+
+	public boolean contains(String role) {
+		if (role == null) {
+			return nullRole;
+		}
+		int id = RoleDictionary.find(role);
+		return id >= 0 && bits.get(id);
+	}
+
+	/**
+	 * @param acl the access list of a document
+	 * @return whether any of the roles is on the access list
+	 */
+	public boolean containsAny(Collection<String> acl) {
+		if (acl == null || acl.isEmpty() || roles.isEmpty()) {
+			return false;
+		}
+		// hashed access lists are cheaper to probe from the smaller side, and a scan beats a lookup per entry for a role or two
+		if ((acl instanceof Set && roles.size() <= acl.size()) || roles.size() <= SCAN_ROLES) {
+			for (String role : roles) {
+				if (acl.contains(role)) {
+					return true;
+				}
+			}
+			return false;
+		}
+		for (String role : acl) {
+			if (this.contains(role)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public List<String> getRoles() {
+		return roles;
+	}
+
+	public int size() {
+		return roles.size();
+	}
+}
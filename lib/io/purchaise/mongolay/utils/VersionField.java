@@ -0,0 +1,66 @@
+package io.purchaise.mongolay.utils;
+
+import io.purchaise.mongolay.FieldReference;
+import io.purchaise.mongolay.annotations.Version;
+import lombok.Getter;
+import org.apache.commons.lang3.reflect.FieldUtils;
+
+import java.lang.reflect.Field;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * The {@link Version} field of a class, resolved once per class
+ */
+public class VersionField {
+	private static final ClassValue<Optional<VersionField>> fields = new ClassValue<>() {
+		@Override
+		protected Optional<VersionField> computeValue(Class<?> type) {
+			List<Field> annotated = FieldUtils.getFieldsListWithAnnotation(type, Version.class);
+			return annotated.isEmpty() ? Optional.empty() : Optional.of(new VersionField(annotated.get(0)));
+		}
+	};
+
+	/**
+	 * The name of the field in the stored documents
+	 */
+	@Getter
+	private final String name;
+	private final FieldAccessor accessor;
+	private final boolean isInteger;
+
+	private VersionField(Field field) {
+		Class<?> type = field.getType();
+		if (type != long.class && type != Long.class && type != int.class && type != Integer.class) {
+			throw new IllegalArgumentException(String.format("The version field %s must be an int or a long", field.getName()));
+		}
+		this.name = FieldReference.getMongoClass(field);
+		this.accessor = FieldAccessor.of(field);
+		this.isInteger = type == int.class || type == Integer.class;
+	}
+
+	/**
+	 * @param clazz the class of the model
+	 * @return the version field, or null if the class is not versioned
+	 */
+	public static VersionField of(Class<?> clazz) {
+		return fields.get(clazz).orElse(null);
+	}
+
+	/**
+	 * @param target the model
+	 * @return the version of the model, null if it was never written with one
+	 */
+	public Long get(Object target) {
+		Object value = accessor.get(target);
+		return value == null ? null : ((Number) value).longValue();
+	}
+
+	public void set(Object target, Long version) {
+		if (version == null) {
+			accessor.set(target, null);
+			return;
+		}
+		accessor.set(target, isInteger ? (Object) version.intValue() : (Object) version);
+	}
+}